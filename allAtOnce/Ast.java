@@ -0,0 +1,123 @@
+package allAtOnce;
+
+import java.util.*;
+
+// Typed syntax tree built by Parser
+final class Ast {
+    private Ast() {
+    }
+
+    interface Stmt {
+        // Source line the statement came from (1-based)
+        int line();
+    }
+
+    interface Expr {
+    }
+
+    // BEGIN ... END, or the part of one a compilation unit has queued
+    static final class Program {
+        final List<Stmt> statements = new ArrayList<>();
+    }
+
+    // INTEGER A, B, C
+    static final class IntegerDecl implements Stmt {
+        final int line;
+        final List<String> names;
+
+        IntegerDecl(int line, List<String> names) {
+            this.line = line;
+            this.names = names;
+        }
+
+        public int line() {
+            return line;
+        }
+    }
+
+    // INPUT A, B, C
+    static final class Input implements Stmt {
+        final int line;
+        final List<String> names;
+
+        Input(int line, List<String> names) {
+            this.line = line;
+            this.names = names;
+        }
+
+        public int line() {
+            return line;
+        }
+    }
+
+    // WRITE A
+    static final class Write implements Stmt {
+        final int line;
+        final String name;
+
+        Write(int line, String name) {
+            this.line = line;
+            this.name = name;
+        }
+
+        public int line() {
+            return line;
+        }
+    }
+
+    // LET A = expr, or A = expr
+    static final class Let implements Stmt {
+        final int line;
+        final String target;
+        final Expr value;
+
+        Let(int line, String target, Expr value) {
+            this.line = line;
+            this.target = target;
+            this.value = value;
+        }
+
+        public int line() {
+            return line;
+        }
+    }
+
+    // left op right, op is one of + - * /
+    static final class BinaryOp implements Expr {
+        final char op;
+        final Expr left;
+        final Expr right;
+
+        BinaryOp(char op, Expr left, Expr right) {
+            this.op = op;
+            this.left = left;
+            this.right = right;
+        }
+    }
+
+    static final class Ident implements Expr {
+        final String name;
+
+        Ident(String name) {
+            this.name = name;
+        }
+    }
+
+    // Post-order walk, giving the same list toPostfix builds from the tokens
+    static List<String> postfix(Expr expr) {
+        List<String> output = new ArrayList<>();
+        postfix(expr, output);
+        return output;
+    }
+
+    private static void postfix(Expr expr, List<String> output) {
+        if (expr instanceof BinaryOp) {
+            BinaryOp bin = (BinaryOp) expr;
+            postfix(bin.left, output);
+            postfix(bin.right, output);
+            output.add(String.valueOf(bin.op));
+        } else {
+            output.add(((Ident) expr).name);
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package allAtOnce;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.stream.*;
+
+// Compiles many independent program files on a ForkJoinPool.
+// Every file gets its own CompilationUnit; listings are printed in input order
+// as soon as each file and all files before it are done.
+public final class BatchCompiler {
+    // Outcome of compiling one file
+    public static final class FileResult {
+        public final Path path;
+        public final String listing;
+        public final int lines;
+        public final List<CompilationUnit.Diagnostic> diagnostics;
+        // Set when the file could not be read
+        public final String ioError;
+
+        FileResult(Path path, String listing, int lines, List<CompilationUnit.Diagnostic> diagnostics, String ioError) {
+            this.path = path;
+            this.listing = listing;
+            this.lines = lines;
+            this.diagnostics = diagnostics;
+            this.ioError = ioError;
+        }
+    }
+
+    // Totals over a batch
+    public static final class Summary {
+        public int files;
+        public int unreadable;
+        public long lines;
+        public long errors;
+        public long elapsedNanos;
+        public int threads;
+
+        @Override
+        public String toString() {
+            double seconds = elapsedNanos / 1e9;
+            return String.format(Locale.ROOT,
+                    "Compiled %d files (%d lines, %d errors, %d unreadable) in %.1f ms on %d threads, %.0f lines/s",
+                    files, lines, errors, unreadable, elapsedNanos / 1e6, threads,
+                    seconds > 0 ? lines / seconds : 0);
+        }
+    }
+
+    private final CompilerSession session;
+    private final int parallelism;
+
+    public BatchCompiler(CompilerSession session, int parallelism) {
+        this.session = session;
+        this.parallelism = Math.max(1, parallelism);
+    }
+
+    // Expands directories (recursively, sorted by path) into the files to compile
+    public static List<Path> collect(List<String> arguments) throws IOException {
+        List<Path> files = new ArrayList<>();
+        for (String argument : arguments) {
+            Path path = Paths.get(argument);
+            if (Files.isDirectory(path)) {
+                try (Stream<Path> walk = Files.walk(path)) {
+                    walk.filter(Files::isRegularFile).sorted().forEach(files::add);
+                }
+            } else {
+                files.add(path);
+            }
+        }
+        return files;
+    }
+
+    public FileResult compile(Path path) {
+        CompilationUnit unit = session.newUnit();
+        try (SourceReader reader = SourceReader.open(path)) {
+            unit.compile(reader);
+        } catch (IOException | UncheckedIOException e) {
+            return new FileResult(path, "", 0, Collections.emptyList(), e.toString());
+        }
+        return new FileResult(path, unit.output(), unit.lineCount(), unit.diagnostics(), null);
+    }
+
+    // Compiles every file and hands the results to 'sink' in input order
+    public Summary compile(List<Path> files, java.util.function.Consumer<FileResult> sink) {
+        Summary summary = new Summary();
+        summary.threads = parallelism;
+        long start = System.nanoTime();
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            List<ForkJoinTask<FileResult>> tasks = new ArrayList<>(files.size());
+            for (Path file : files) {
+                tasks.add(pool.submit(() -> compile(file)));
+            }
+            for (ForkJoinTask<FileResult> task : tasks) {
+                FileResult result = task.join();
+                summary.files++;
+                summary.lines += result.lines;
+                summary.errors += result.diagnostics.size();
+                if (result.ioError != null) {
+                    summary.unreadable++;
+                }
+                sink.accept(result);
+            }
+        } finally {
+            pool.shutdown();
+        }
+        summary.elapsedNanos = System.nanoTime() - start;
+        return summary;
+    }
+
+    // Batch entry point used by Compiler3.main --batch
+    public static void run(List<String> arguments, CompilerSession session, int parallelism, PrintStream out)
+            throws IOException {
+        BatchCompiler compiler = new BatchCompiler(session, parallelism);
+        Summary summary = compiler.compile(collect(arguments), result -> {
+            out.println("=== " + result.path + " ===");
+            if (result.ioError != null) {
+                out.println("  I/O error: " + result.ioError);
+            } else {
+                out.print(result.listing);
+                out.println();
+                out.println("Compilation Complete (" + result.diagnostics.size() + " errors)");
+            }
+            out.println();
+        });
+        out.println(summary);
+        if (session.cache != null) {
+            out.println("Compilation cache: " + session.cache);
+        }
+        if (session.diskCache != null) {
+            out.println("Disk cache: " + session.diskCache);
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package allAtOnce;
+
+import java.util.*;
+
+// Common subexpression elimination across the assignments of a program, by value
+// numbering. A program is straight-line code, so it is one basic block: every variable
+// reference gets the value number of the variable's current value and every operation
+// the number of (op, left, right), with + and * operands in a canonical order. Numbers
+// are only equal when the values are, so a LET or INPUT that redefines an operand
+// invalidates everything computed from it.
+//
+// Statements are processed a batch at a time. The first pass numbers every operation;
+// the second replaces an operation by the location already holding its value, which
+// is either the target of an earlier assignment or a holder c1, c2, ... An operation
+// gets a holder when a later statement of the batch uses its value again. Whole
+// right-hand sides are never replaced, because the target still has to be computed.
+final class CommonSubexpressions {
+    // An assignment ready for code generation
+    static final class Rewrite {
+        final Ast.Let let;
+        // Operations whose result is stored in a holder instead of a temporary
+        final Map<Ast.Expr, String> results;
+        final int saved;
+
+        Rewrite(Ast.Let let, Map<Ast.Expr, String> results, int saved) {
+            this.let = let;
+            this.results = results;
+            this.saved = saved;
+        }
+    }
+
+    // Value number of each variable's current value
+    private final Map<String, Integer> versions = new HashMap<>();
+    // Value number of each operation, keyed by op and operand numbers
+    private final Map<Long, Integer> expressions = new HashMap<>();
+    // Location holding each value, and the value each location holds
+    private final Map<Integer, String> holders = new HashMap<>();
+    private final Map<String, Integer> held = new HashMap<>();
+    // Per batch: number of every operation node and how often each value is used
+    private final Map<Ast.Expr, Integer> numbers = new IdentityHashMap<>();
+    private final Map<Integer, Integer> uses = new HashMap<>();
+    private int values;
+    private int holderCount;
+    private long saved;
+
+    // First pass, in source order over the batch
+    void number(Ast.Stmt stmt) {
+        if (stmt instanceof Ast.Input) {
+            for (String name : ((Ast.Input) stmt).names) {
+                versions.put(name, values++);
+            }
+        } else if (stmt instanceof Ast.Let) {
+            Ast.Let let = (Ast.Let) stmt;
+            // "LET A = B" only generates code in executable sessions, so A gets a fresh value
+            versions.put(let.target, let.value instanceof Ast.BinaryOp ? number(let.value, true) : values++);
+        }
+    }
+
+    private int number(Ast.Expr expr, boolean root) {
+        if (expr instanceof Ast.Ident) {
+            return versions.computeIfAbsent(((Ast.Ident) expr).name, name -> values++);
+        }
+        Ast.BinaryOp bin = (Ast.BinaryOp) expr;
+        int left = number(bin.left, false);
+        int right = number(bin.right, false);
+        if ((bin.op == '+' || bin.op == '*') && left > right) {
+            int swap = left;
+            left = right;
+            right = swap;
+        }
+        long key = ((long) "+-*/".indexOf(bin.op) << 62) | ((long) left << 31) | right;
+        int value = expressions.computeIfAbsent(key, k -> values++);
+        numbers.put(expr, value);
+        if (!root) {
+            uses.merge(value, 1, Integer::sum);
+        }
+        return value;
+    }
+
+    // Second pass, in the same order: INPUT statements
+    void redefine(Ast.Input input) {
+        for (String name : input.names) {
+            release(name);
+        }
+    }
+
+    // Second pass: assignments. New holders get slots from 'slots' when it is not null.
+    Rewrite rewrite(Ast.Let let, SlotAllocator slots) {
+        Map<Ast.Expr, String> results = new IdentityHashMap<>();
+        int[] savedHere = new int[1];
+        Ast.Expr value = let.value;
+        if (value instanceof Ast.BinaryOp) {
+            Ast.BinaryOp bin = (Ast.BinaryOp) value;
+            Ast.Expr left = rewrite(bin.left, results, savedHere, slots);
+            Ast.Expr right = rewrite(bin.right, results, savedHere, slots);
+            if (left != bin.left || right != bin.right) {
+                value = new Ast.BinaryOp(bin.op, left, right);
+            }
+        }
+        release(let.target);
+        Integer number = numbers.get(let.value);
+        if (number != null && !holders.containsKey(number)) {
+            hold(number, let.target);
+        }
+        saved += savedHere[0];
+        return new Rewrite(value == let.value ? let : new Ast.Let(let.line, let.target, value), results, savedHere[0]);
+    }
+
+    private Ast.Expr rewrite(Ast.Expr expr, Map<Ast.Expr, String> results, int[] savedHere, SlotAllocator slots) {
+        if (expr instanceof Ast.Ident) {
+            return expr;
+        }
+        int number = numbers.get(expr);
+        int laterUses = uses.merge(number, -1, Integer::sum);
+        String holder = holders.get(number);
+        if (holder != null) {
+            savedHere[0] += operators(expr);
+            return new Ast.Ident(holder);
+        }
+        Ast.BinaryOp bin = (Ast.BinaryOp) expr;
+        Ast.Expr left = rewrite(bin.left, results, savedHere, slots);
+        Ast.Expr right = rewrite(bin.right, results, savedHere, slots);
+        Ast.Expr rewritten = left != bin.left || right != bin.right ? new Ast.BinaryOp(bin.op, left, right) : expr;
+        if (laterUses > 0) {
+            String name = "c" + (holderCount + 1);
+            if (slots == null || slots.allocate(name) >= 0) {
+                holderCount++;
+                results.put(rewritten, name);
+                hold(number, name);
+            }
+        }
+        return rewritten;
+    }
+
+    private void hold(int value, String location) {
+        holders.put(value, location);
+        held.put(location, value);
+    }
+
+    // 'name' is being redefined and no longer holds its old value
+    private void release(String name) {
+        Integer value = held.remove(name);
+        if (value != null && name.equals(holders.get(value))) {
+            holders.remove(value);
+        }
+    }
+
+    // Forgets per-batch data; only values with a holder can still be reused later
+    void endBatch() {
+        numbers.clear();
+        uses.clear();
+        expressions.values().removeIf(value -> !holders.containsKey(value));
+    }
+
+    // Instructions not generated because their value was reused
+    long saved() {
+        return saved;
+    }
+
+    private static int operators(Ast.Expr expr) {
+        if (expr instanceof Ast.Ident) {
+            return 0;
+        }
+        Ast.BinaryOp bin = (Ast.BinaryOp) expr;
+        return operators(bin.left) + operators(bin.right) + 1;
+    }
+}
@@ -0,0 +1,105 @@
+package allAtOnce;
+
+import java.util.*;
+
+// Back end results of assignments, shared by every unit of a session, so a statement
+// compiled before (in this program or any other) skips ICR generation, assembly,
+// optimization and register allocation. Entries are keyed by the statement's
+// normalized tokens: the target and the postfix form of its expression, so spacing,
+// "LET" and redundant parentheses do not matter.
+//
+// A statement only gets here after passing its own unit's semantic checks, and what
+// the back end produces depends on nothing but the statement and the session's
+// options, so units with different declared identifiers share entries safely. The
+// TMC is not cached: its operand bytes depend on the unit's slot numbering, so it is
+// encoded again from the cached three-operand code.
+//
+// Bounded least recently used; all methods are thread-safe.
+public final class CompilationCache {
+    // Finished back end output for one statement
+    static final class Entry {
+        // Listing from "Postfix:" up to, not including, the TMC
+        final String listing;
+        // Optimized (and register allocated) three-operand code; never modified
+        final Ir.Code code;
+
+        Entry(String listing, Ir.Code code) {
+            this.listing = listing;
+            this.code = code;
+        }
+    }
+
+    private final int capacity;
+    private final LinkedHashMap<String, Entry> entries;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    public CompilationCache(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Cache capacity must be positive: " + capacity);
+        }
+        this.capacity = capacity;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                if (size() <= CompilationCache.this.capacity) {
+                    return false;
+                }
+                evictions++;
+                return true;
+            }
+        };
+    }
+
+    // Normalized tokens of an assignment: "A = B C +"
+    static String key(String target, List<String> postfix) {
+        StringBuilder key = new StringBuilder(target).append(" =");
+        for (String token : postfix) {
+            key.append(' ').append(token);
+        }
+        return key.toString();
+    }
+
+    // Cached entry for 'key', counting a hit or a miss
+    synchronized Entry get(String key) {
+        Entry entry = entries.get(key);
+        if (entry != null) {
+            hits++;
+        } else {
+            misses++;
+        }
+        return entry;
+    }
+
+    synchronized void put(String key, Entry entry) {
+        entries.put(key, entry);
+    }
+
+    public synchronized long hits() {
+        return hits;
+    }
+
+    public synchronized long misses() {
+        return misses;
+    }
+
+    public synchronized long evictions() {
+        return evictions;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    @Override
+    public synchronized String toString() {
+        long lookups = hits + misses;
+        return String.format(Locale.ROOT, "%d hits, %d misses (%.1f%% hit rate), %d evictions, %d of %d entries",
+                hits, misses, lookups > 0 ? 100.0 * hits / lookups : 0, evictions, entries.size(), capacity);
+    }
+}
@@ -0,0 +1,552 @@
+package allAtOnce;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.stream.*;
+
+// One program being compiled: owns its symbol table, diagnostics and listing.
+// Units are independent of each other; a single unit is not thread-safe.
+//
+// Declarations and semantic checks depend on line order and run as each line arrives.
+// Code generation for assignments only needs the statement itself, so with a parallel
+// back end those statements are queued and generated in parallel a window at a time,
+// then the listings are written out in source order.
+public final class CompilationUnit {
+    // Lines buffered before the queued statements are generated and written out
+    static final int BACKEND_WINDOW = 4096;
+    // Fewer queued statements than this are generated on the calling thread
+    static final int PARALLEL_THRESHOLD = 64;
+    // Version of an assignment's back end listing and TMC; raise it whenever either
+    // changes, so on-disk caches from older compilers are not reused
+    static final int OUTPUT_VERSION = 2;
+
+    // A line whose listing is waiting for its code to be generated
+    private static final class Pending {
+        final StringBuilder listing;
+        // Position of the line's statement in the queued program; -1 if it has none
+        final int statement;
+        // Dropped by dead store elimination
+        boolean dead;
+        Map<Ast.Expr, String> results;
+        int saved;
+        ByteBuffer tmc;
+
+        Pending(StringBuilder listing, int statement) {
+            this.listing = listing;
+            this.statement = statement;
+        }
+    }
+
+    // An error reported for a source line
+    public static final class Diagnostic {
+        public final int line;
+        public final String message;
+
+        Diagnostic(int line, String message) {
+            this.line = line;
+            this.message = message;
+        }
+
+        @Override
+        public String toString() {
+            return "Line " + line + ": " + message;
+        }
+    }
+
+    private final CompilerSession session;
+    private final Appendable out;
+    private final Set<String> declaredIds = new HashSet<>();
+    private final List<Diagnostic> diagnostics = new ArrayList<>();
+    // Operand slots, when the session encodes them
+    private final SlotAllocator slots;
+    // Value numbering state, when the session eliminates common subexpressions
+    private final CommonSubexpressions cse;
+    private final List<Pending> pending = new ArrayList<>();
+    // Statements of the pending lines, in order; common subexpression elimination
+    // replaces assignments with their rewritten form
+    private final Ast.Program queued = new Ast.Program();
+    private int pendingStatements;
+    // Dead store elimination: whether END has been seen, lines whose assignment was
+    // dropped and declared variables nothing uses
+    private boolean ended;
+    private final List<Integer> removedStatements = new ArrayList<>();
+    private List<String> unusedVariables = Collections.emptyList();
+    private TmcEmitter binary;
+    // Whole program's TMC, when the session makes it executable
+    private final TmcEmitter executable;
+    private TokenStream tokens = new TokenStream();
+    private int lineNum;
+
+    CompilationUnit(CompilerSession session, Appendable out) {
+        this.session = session;
+        this.out = out;
+        this.slots = session.slotEncoding ? new SlotAllocator() : null;
+        this.cse = session.commonSubexpressions ? new CommonSubexpressions() : null;
+        this.executable = session.executable ? new TmcEmitter(1 << 12, false) : null;
+        if (slots != null && !session.simplifierRules.isEmpty()) {
+            slots.allocate(Simplifier.ZERO);
+            slots.allocate(Simplifier.ONE);
+        }
+    }
+
+    public void compile(String[] program) {
+        for (String line : program) {
+            compileLine(line);
+        }
+        flush();
+    }
+
+    public void compile(Iterable<String> program) {
+        for (String line : program) {
+            compileLine(line);
+        }
+        flush();
+    }
+
+    // Compiles the next source line. With a parallel back end, common subexpression
+    // elimination or dead store elimination its listing may be held back until the window
+    // fills (dead store elimination: until the end) or flush() is called.
+    public void compileLine(String line) {
+        lineNum++;
+        StringBuilder listing = new StringBuilder();
+        header(lineNum, line, listing);
+        Ast.Stmt stmt = compileLine(lineNum, line, declaredIds, listing);
+        if (!session.parallelBackend && cse == null && !session.deadStores) {
+            ByteBuffer tmc = stmt instanceof Ast.Let ? generate((Ast.Let) stmt, null, listing) : io(stmt, listing);
+            emit(listing, tmc);
+            return;
+        }
+        if (stmt != null) {
+            queued.statements.add(stmt);
+        }
+        pending.add(new Pending(listing, stmt != null ? queued.statements.size() - 1 : -1));
+        if (stmt instanceof Ast.Let) {
+            pendingStatements++;
+        }
+        if (pending.size() >= BACKEND_WINDOW && !session.deadStores) {
+            flush();
+        }
+    }
+
+    // Generates code for the queued statements and writes out every buffered listing
+    public void flush() {
+        if (pending.isEmpty()) {
+            return;
+        }
+        if (cse != null) {
+            eliminateCommonSubexpressions();
+        }
+        if (session.deadStores) {
+            eliminateDeadStores();
+        }
+        if (session.parallelBackend && pendingStatements >= PARALLEL_THRESHOLD) {
+            // Runs in the caller's ForkJoinPool when there is one (e.g. batch mode)
+            IntStream.range(0, pending.size()).parallel().forEach(this::generatePending);
+        } else {
+            for (int i = 0; i < pending.size(); i++) {
+                generatePending(i);
+            }
+        }
+        for (Pending p : pending) {
+            emit(p.listing, p.tmc);
+        }
+        pending.clear();
+        queued.statements.clear();
+        pendingStatements = 0;
+    }
+
+    private void generatePending(int i) {
+        Pending p = pending.get(i);
+        Ast.Stmt stmt = p.statement >= 0 ? queued.statements.get(p.statement) : null;
+        if (stmt instanceof Ast.Let && !p.dead) {
+            p.tmc = generate((Ast.Let) stmt, p.results, p.listing);
+            if (p.saved > 0) {
+                p.listing.append("  CSE: ").append(p.saved).append(p.saved == 1 ? " instruction" : " instructions")
+                        .append(" saved\n");
+            }
+        } else {
+            p.tmc = io(stmt, p.listing);
+        }
+    }
+
+    // Value numbering depends on statement order, so this runs on the calling thread
+    // before the queued assignments are generated
+    private void eliminateCommonSubexpressions() {
+        List<Ast.Stmt> statements = queued.statements;
+        for (Ast.Stmt stmt : statements) {
+            cse.number(stmt);
+        }
+        for (Pending p : pending) {
+            Ast.Stmt stmt = p.statement >= 0 ? statements.get(p.statement) : null;
+            if (stmt instanceof Ast.Input) {
+                cse.redefine((Ast.Input) stmt);
+            } else if (stmt instanceof Ast.Let) {
+                CommonSubexpressions.Rewrite rewrite = cse.rewrite((Ast.Let) stmt, slots);
+                statements.set(p.statement, rewrite.let);
+                p.results = rewrite.results;
+                p.saved = rewrite.saved;
+            }
+        }
+        cse.endBatch();
+    }
+
+    // Liveness needs every later statement, so the whole program is queued up to here.
+    // Runs on the calling thread after common subexpression elimination, whose holders
+    // count as variables the assignments define.
+    private void eliminateDeadStores() {
+        List<Collection<String>> holders = new ArrayList<>(queued.statements.size());
+        for (Pending p : pending) {
+            if (p.statement >= 0) {
+                holders.add(p.results != null ? p.results.values() : Collections.emptyList());
+            }
+        }
+        BitSet dead = Liveness.deadStores(queued, holders, ended);
+        for (Pending p : pending) {
+            if (p.statement < 0 || !dead.get(p.statement)) {
+                continue;
+            }
+            Ast.Let let = (Ast.Let) queued.statements.get(p.statement);
+            p.listing.append("  Dead store removed: the value of ").append(let.target).append(" never reaches a WRITE\n");
+            removedStatements.add(let.line);
+            p.dead = true;
+            pendingStatements--;
+        }
+        unusedVariables = Liveness.unused(queued);
+    }
+
+    // "Line n: text" heading of a line's listing
+    static void header(int lineNum, String line, StringBuilder out) {
+        out.append("\nLine ").append(lineNum).append(": ").append(line).append('\n');
+    }
+
+    // Front end for one line, after its header; returns its statement, if any.
+    // IncrementalCompiler passes its own view of the declared identifiers.
+    Ast.Stmt compileLine(int lineNum, String line, Set<String> declaredIds, StringBuilder out) {
+        // Lexical Analysis
+        if (session.dfaScanner) {
+            Compiler3.tokenize(line, tokens);
+        } else {
+            tokens = TokenStream.of(Compiler3.tokenize(line));
+        }
+        String lexicalError = Compiler3.checkLexicalErrors(tokens);
+        if (lexicalError != null) {
+            report(lineNum, lexicalError, out);
+            return null;
+        }
+
+        // Display tokens concisely
+        out.append("  Tokens: ");
+        for (int i = 0; i < tokens.size(); i++) {
+            out.append(tokens.value(i)).append(" (").append(tokens.type(i)).append(')');
+            if (i < tokens.size() - 1)
+                out.append(", ");
+        }
+        out.append('\n');
+
+        // Syntax Analysis
+        String syntaxError = Compiler3.checkSyntaxErrors(tokens);
+        if (syntaxError != null) {
+            report(lineNum, syntaxError, out);
+            return null;
+        }
+
+        // Update declared identifiers
+        Compiler3.declareIdentifiers(tokens, declaredIds);
+
+        // Semantic Analysis
+        String semanticError = Compiler3.checkSemanticErrors(tokens, declaredIds);
+        if (semanticError != null) {
+            report(lineNum, semanticError, out);
+            return null;
+        }
+
+        Ast.Stmt stmt = Parser.parseStatement(tokens, lineNum);
+        if (session.rebalance && stmt instanceof Ast.Let) {
+            Ast.Let let = (Ast.Let) stmt;
+            stmt = new Ast.Let(let.line, let.target, Rebalancer.rebalance(let.value));
+        }
+        if (stmt != null && slots != null && !allocateSlots(stmt)) {
+            report(lineNum, "Too many symbols for slot encoding", out);
+            return null;
+        }
+
+        out.append("  Status: Valid\n");
+        if (stmt == null) {
+            ended |= tokens.is(0, Compiler3.TokenType.KEYWORD, "END");
+            return null;
+        }
+
+        // Expression lines go on to code generation
+        return stmt;
+    }
+
+    // Gives the statement's identifiers and temporaries their slots before the back end runs
+    private boolean allocateSlots(Ast.Stmt stmt) {
+        if (stmt instanceof Ast.IntegerDecl) {
+            return allocateSlots(((Ast.IntegerDecl) stmt).names);
+        }
+        if (stmt instanceof Ast.Input) {
+            return allocateSlots(((Ast.Input) stmt).names);
+        }
+        if (stmt instanceof Ast.Write) {
+            return slots.allocate(((Ast.Write) stmt).name) >= 0;
+        }
+        Ast.Let let = (Ast.Let) stmt;
+        if (isExecutableCopy(let) && slots.allocate(Simplifier.ZERO) < 0) {
+            return false;
+        }
+        int temporaries = Compiler3.storedTemporaries(let.value, session.recycleTemporaries);
+        return slots.allocate(let.target) >= 0 && allocateSlots(let.value)
+                && slots.reserveTemporaries(temporaries)
+                && slots.reserveRegisters(Math.min(session.registers, temporaries));
+    }
+
+    // "LET A = B" has no operator to generate code for; executable code stores it as
+    // A = B + 0
+    private boolean isExecutableCopy(Ast.Let let) {
+        return session.executable && let.value instanceof Ast.Ident;
+    }
+
+    private boolean allocateSlots(List<String> names) {
+        for (String name : names) {
+            if (slots.allocate(name) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean allocateSlots(Ast.Expr expr) {
+        if (expr instanceof Ast.Ident) {
+            return slots.allocate(((Ast.Ident) expr).name) >= 0;
+        }
+        Ast.BinaryOp bin = (Ast.BinaryOp) expr;
+        return allocateSlots(bin.left) && allocateSlots(bin.right);
+    }
+
+    // Back end for one assignment; only reads the statement, so it is safe to run in
+    // parallel. 'results' names the holders of reused values (see CommonSubexpressions).
+    // Returns the binary TMC.
+    ByteBuffer generate(Ast.Let let, Map<Ast.Expr, String> results, StringBuilder out) {
+        List<String> postfix = Ast.postfix(let.value);
+        // Statements using common subexpression holders depend on the rest of the program
+        boolean cacheable = results == null || results.isEmpty();
+        CompilationCache cache = cacheable ? session.cache : null;
+        DiskCache disk = cacheable ? session.diskCache : null;
+        String key = cache != null || disk != null ? CompilationCache.key(let.target, postfix) : null;
+        CompilationCache.Entry cached = cache != null ? cache.get(key) : null;
+        String diskKey = cached == null && disk != null ? diskKey(key, let, postfix) : null;
+        DiskCache.Record stored = diskKey != null ? disk.get(diskKey) : null;
+        int start = out.length();
+        ByteBuffer tmc;
+        if (stored != null) {
+            out.append(stored.listing);
+            tmc = ByteBuffer.wrap(stored.tmc);
+        } else {
+            Ir.Code optimized;
+            if (cached != null) {
+                out.append(cached.listing);
+                optimized = cached.code;
+            } else {
+                optimized = optimize(let, postfix, results, out);
+                if (cache != null) {
+                    cache.put(key, new CompilationCache.Entry(out.substring(start), optimized));
+                }
+            }
+            // Target Machine Code
+            tmc = Compiler3.generateBinaryTMC(optimized, slots != null ? slots : InstructionEncoder.DEFAULT);
+            if (diskKey != null) {
+                disk.put(diskKey, out.substring(start), tmc);
+            }
+        }
+        if (session.tmcListing) {
+            listing("TMC", TmcEmitter.disassemble(tmc), out);
+        }
+        return tmc;
+    }
+
+    // On-disk cache key: the statement, the back end options and, with slot encoding,
+    // the operand byte of every symbol the statement's code can refer to
+    private String diskKey(String key, Ast.Let let, List<String> postfix) {
+        StringBuilder diskKey = new StringBuilder(key).append('\n').append(session.backEndOptions());
+        if (slots == null) {
+            return diskKey.toString();
+        }
+        List<String> names = new ArrayList<>();
+        names.add(let.target);
+        for (String token : postfix) {
+            if (token.length() > 1 || "+-*/".indexOf(token.charAt(0)) < 0) {
+                names.add(token);
+            }
+        }
+        int temporaries = Compiler3.storedTemporaries(let.value, session.recycleTemporaries);
+        for (int t = 1; t <= temporaries; t++) {
+            names.add("t" + t);
+        }
+        for (int r = 0; r < Math.min(session.registers, temporaries); r++) {
+            names.add(RegisterAllocator.register(r));
+        }
+        if (!session.simplifierRules.isEmpty() || isExecutableCopy(let)) {
+            names.add(Simplifier.ZERO);
+            names.add(Simplifier.ONE);
+        }
+        diskKey.append('\n');
+        for (String name : names) {
+            diskKey.append(slots.operand(name) & 0xFF).append(' ');
+        }
+        return diskKey.toString();
+    }
+
+    // ICR to optimized, register allocated three-operand code, listing every step
+    private Ir.Code optimize(Ast.Let let, List<String> postfix, Map<Ast.Expr, String> results, StringBuilder out) {
+        Ir.Symbols symbols = new Ir.Symbols();
+        Ir.Code icr = Compiler3.generateICR(let.value, symbols, session.recycleTemporaries, results);
+        if (isExecutableCopy(let)) {
+            icr.add(Ir.Op.ADD, symbols.intern(let.target), symbols.intern(((Ast.Ident) let.value).name),
+                    symbols.intern(Simplifier.ZERO));
+        }
+        out.append("  Postfix: ").append(postfix).append('\n');
+        listing("ICR", icr.format(), out);
+        if (!session.simplifierRules.isEmpty()) {
+            Simplifier.Result simplified = Simplifier.simplify(icr, session.simplifierRules);
+            icr = simplified.code;
+            listing("Simplified ICR", icr.format(), out);
+            out.append("  Simplifier: ").append(simplified).append('\n');
+        }
+
+        // Code Generation
+        Ir.Code assembly = Compiler3.generateAssembly(icr, symbols.intern(let.target));
+        listing("Assembly", assembly.format(), out);
+        if (session.peephole) {
+            Peephole.Result peephole = Peephole.optimize(assembly);
+            assembly = peephole.code;
+            listing("Peephole Assembly", assembly.format(), out);
+            out.append("  Peephole: ").append(peephole).append('\n');
+        }
+
+        // Code Optimization
+        Ir.Code optimized = Compiler3.optimizeAssembly(assembly);
+        listing("Optimized Assembly", optimized.format(), out);
+
+        // Register Allocation
+        if (session.registers > 0) {
+            RegisterAllocator.Result allocation = RegisterAllocator.allocate(optimized, session.registers);
+            optimized = allocation.code;
+            listing("Register Allocation", optimized.format(), out);
+            out.append("  Spills: ").append(allocation).append('\n');
+        }
+        return optimized;
+    }
+
+    // INPUT and WRITE as TMC, when the session makes programs executable; null otherwise
+    private ByteBuffer io(Ast.Stmt stmt, StringBuilder out) {
+        if (executable == null || !(stmt instanceof Ast.Input || stmt instanceof Ast.Write)) {
+            return null;
+        }
+        List<String> names = stmt instanceof Ast.Input ? ((Ast.Input) stmt).names
+                : Collections.singletonList(((Ast.Write) stmt).name);
+        ByteBuffer tmc = ByteBuffer.allocate(names.size() * TmcEmitter.INSTRUCTION_BYTES);
+        for (String name : names) {
+            if (stmt instanceof Ast.Input) {
+                slots.encodeInput(name, tmc);
+            } else {
+                slots.encodeWrite(name, tmc);
+            }
+        }
+        tmc.flip();
+        if (session.tmcListing) {
+            listing("TMC", TmcEmitter.disassemble(tmc), out);
+        }
+        return tmc;
+    }
+
+    private static void listing(String title, List<String> lines, StringBuilder out) {
+        out.append("  ").append(title).append(":\n");
+        for (String line : lines) {
+            out.append("    ").append(line).append('\n');
+        }
+    }
+
+    private void report(int lineNum, String message, StringBuilder out) {
+        diagnostics.add(new Diagnostic(lineNum, message));
+        out.append("  ").append(message).append('\n');
+    }
+
+    private void emit(CharSequence text, ByteBuffer tmc) {
+        try {
+            out.append(text);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        if (tmc != null && binary != null) {
+            binary.emit(tmc);
+        }
+        if (tmc != null && executable != null) {
+            executable.emit(tmc);
+        }
+    }
+
+    // Also write every statement's binary TMC, in source order, to 'emitter'
+    public void binaryOutput(TmcEmitter emitter) {
+        this.binary = emitter;
+    }
+
+    // Machine loaded with the program compiled so far (the session must make it executable)
+    public TmcMachine machine() {
+        if (executable == null) {
+            throw new IllegalStateException("The session does not generate executable code");
+        }
+        flush();
+        return new TmcMachine(executable.code(), slots.names());
+    }
+
+    public CompilerSession session() {
+        return session;
+    }
+
+    // Number of lines compiled so far
+    public int lineCount() {
+        return lineNum;
+    }
+
+    public Set<String> declaredIds() {
+        return Collections.unmodifiableSet(declaredIds);
+    }
+
+    // Slot of every operand in the TMC, one "slot  bits  name" line each
+    // (empty unless the session encodes slots)
+    public List<String> slotTable() {
+        return slots != null ? slots.table() : Collections.emptyList();
+    }
+
+    // Name of slot i at index i, for loading the TMC
+    public List<String> slotNames() {
+        return slots != null ? slots.names() : Collections.emptyList();
+    }
+
+    // Instructions saved by common subexpression elimination so far
+    public long savedInstructions() {
+        return cse != null ? cse.saved() : 0;
+    }
+
+    // Lines whose assignment was dropped by dead store elimination
+    public List<Integer> removedStatements() {
+        return Collections.unmodifiableList(removedStatements);
+    }
+
+    // Declared variables the program never uses (with dead store elimination)
+    public List<String> unusedVariables() {
+        return Collections.unmodifiableList(unusedVariables);
+    }
+
+    public List<Diagnostic> diagnostics() {
+        return Collections.unmodifiableList(diagnostics);
+    }
+
+    // The listing, when the unit was created without an explicit sink
+    public String output() {
+        flush();
+        return out.toString();
+    }
+}
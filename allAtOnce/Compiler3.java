@@ -1,5 +1,9 @@
 package allAtOnce;
 
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
 import java.util.*;
 import java.util.regex.*;
 
@@ -24,80 +28,8 @@ public class Compiler3 {
     private static final Set<String> KEYWORDS = new HashSet<>(Arrays.asList(
             "BEGIN", "INTEGER", "LET", "INPUT", "WRITE", "END"));
 
-    // Operator precedence
-    private static final Map<String, Integer> precedence = new HashMap<>();
-    static {
-        precedence.put("+", 1);
-        precedence.put("-", 1);
-        precedence.put("*", 2);
-        precedence.put("/", 2);
-    }
-
-    // Operation to binary mapping
-    private static final Map<String, String> opToBinary = new HashMap<>();
-    static {
-        opToBinary.put("DIV", "01000100");
-        opToBinary.put("MUL", "01001101");
-        opToBinary.put("ADD", "01000001");
-        opToBinary.put("SUB", "01010011");
-    }
-    private static final Map<String, String> tpToBinary = new HashMap<>();
-    static {
-        tpToBinary.put("A", "01000001");
-        tpToBinary.put("B", "01000010");
-        tpToBinary.put("C", "01000011");
-        tpToBinary.put("D", "01000100");
-        tpToBinary.put("E", "01000101");
-        tpToBinary.put("F", "01000110");
-        tpToBinary.put("G", "01000111");
-        tpToBinary.put("H", "01001000");
-        tpToBinary.put("I", "01001001");
-        tpToBinary.put("J", "01001010");
-        tpToBinary.put("K", "01001011");
-        tpToBinary.put("L", "01001100");
-        tpToBinary.put("M", "01001101");
-        tpToBinary.put("N", "01001110");
-        tpToBinary.put("O", "01001111");
-        tpToBinary.put("P", "01010000");
-        tpToBinary.put("Q", "01010001");
-        tpToBinary.put("R", "01010010");
-        tpToBinary.put("S", "01010011");
-        tpToBinary.put("T", "01010100");
-        tpToBinary.put("U", "01010101");
-        tpToBinary.put("V", "01010110");
-        tpToBinary.put("W", "01010111");
-        tpToBinary.put("X", "01011000");
-        tpToBinary.put("Y", "01011001");
-        tpToBinary.put("Z", "01011010");
-        tpToBinary.put("a", "01100001");
-        tpToBinary.put("b", "01100010");
-        tpToBinary.put("c", "01100011");
-        tpToBinary.put("d", "01100100");
-        tpToBinary.put("e", "01100101");
-        tpToBinary.put("f", "01100110");
-        tpToBinary.put("g", "01100111");
-        tpToBinary.put("h", "01101000");
-        tpToBinary.put("i", "01101001");
-        tpToBinary.put("j", "01101010");
-        tpToBinary.put("k", "01101011");
-        tpToBinary.put("l", "01101100");
-        tpToBinary.put("m", "01101101");
-        tpToBinary.put("n", "01101110");
-        tpToBinary.put("o", "01101111");
-        tpToBinary.put("p", "01110000");
-        tpToBinary.put("q", "01110001");
-        tpToBinary.put("r", "01110010");
-        tpToBinary.put("s", "01110011");
-        tpToBinary.put("t", "01110100");
-        tpToBinary.put("u", "01110101");
-        tpToBinary.put("v", "01110110");
-        tpToBinary.put("w", "01110111");
-        tpToBinary.put("x", "01111000");
-        tpToBinary.put("y", "01111001");
-        tpToBinary.put("z", "01111010");
-    }
-
-    // Declared identifiers
+    // Declared identifiers used by the overloads without a symbol table.
+    // CompilationUnit keeps its own set, so separate programs do not share state.
     private static Set<String> declaredIds = new HashSet<>();
 
     // Lexical Analysis
@@ -107,7 +39,7 @@ public class Compiler3 {
                 "\\b(BEGIN|INTEGER|LET|INPUT|WRITE|END)\\b|" +
                         "\\b([a-zA-Z]+)\\b|" +
                         "([+\\-*/])|" +
-                        "([=,)])|" +
+                        "([=,()])|" +
                         "(\\d+)|" +
                         "([;%$&<>])|" +
                         "(\\s+)|" +
@@ -133,11 +65,26 @@ public class Compiler3 {
         return tokens;
     }
 
+    // Lexical Analysis without the regex engine (same token stream as tokenize)
+    public static List<Token> tokenizeDfa(String line) {
+        return DfaScanner.scan(line);
+    }
+
+    // Lexical Analysis into a reusable packed stream (no per-token allocation)
+    public static TokenStream tokenize(String line, TokenStream tokens) {
+        DfaScanner.scan(line, tokens);
+        return tokens;
+    }
+
     // Check for lexical errors
     public static String checkLexicalErrors(List<Token> tokens) {
-        for (Token token : tokens) {
-            if (token.type == TokenType.KEYWORD && !KEYWORDS.contains(token.value)) {
-                return "Lexical error: Misspelled keyword '" + token.value + "'";
+        return checkLexicalErrors(TokenStream.of(tokens));
+    }
+
+    public static String checkLexicalErrors(TokenStream tokens) {
+        for (int i = 0; i < tokens.size(); i++) {
+            if (tokens.type(i) == TokenType.KEYWORD && !KEYWORDS.contains(tokens.value(i))) {
+                return "Lexical error: Misspelled keyword '" + tokens.value(i) + "'";
             }
         }
         return null;
@@ -145,272 +92,557 @@ public class Compiler3 {
 
     // Syntax Analysis
     public static String checkSyntaxErrors(List<Token> tokens) {
-        // Check for numbers
-        for (Token token : tokens) {
-            if (token.type == TokenType.NUMBER) {
-                return "Syntax error: Numbers not allowed ('" + token.value + "')";
-            }
-        }
+        return checkSyntaxErrors(TokenStream.of(tokens));
+    }
 
-        // Check for invalid characters
-        for (Token token : tokens) {
-            if (token.type == TokenType.INVALID && !token.value.equals(";")) {
-                return "Syntax error: Invalid character '" + token.value + "'";
-            }
+    // Line shapes recognised by the syntax checker
+    private static final int SHAPE_INVALID = 0;
+    private static final int SHAPE_BEGIN_END = 1;
+    private static final int SHAPE_LIST = 2;
+    private static final int SHAPE_WRITE = 3;
+    private static final int SHAPE_ASSIGN = 4;
+
+    // Single pass over the tokens. Errors are still reported in the original priority
+    // order: numbers, invalid characters, combined operators, trailing semicolon, then
+    // the statement shape, so a later number still wins over an earlier shape error.
+    public static String checkSyntaxErrors(TokenStream tokens) {
+        int size = tokens.size();
+        if (size == 0) {
+            return "Syntax error: Empty line";
         }
 
-        // Check for combined operators
-        for (int i = 0; i < tokens.size() - 1; i++) {
-            if (tokens.get(i).type == TokenType.OPERATOR && tokens.get(i + 1).type == TokenType.OPERATOR) {
-                return "Syntax error: Combined operators '" + tokens.get(i).value + tokens.get(i + 1).value + "'";
+        // Classify the line from its leading tokens
+        int shape = SHAPE_INVALID;
+        int exprStart = 0;
+        String listKeyword = null;
+        TokenType first = tokens.type(0);
+        if (size == 1 && (tokens.is(0, TokenType.KEYWORD, "BEGIN") || tokens.is(0, TokenType.KEYWORD, "END"))) {
+            shape = SHAPE_BEGIN_END;
+        } else if (tokens.is(0, TokenType.KEYWORD, "INTEGER") || tokens.is(0, TokenType.KEYWORD, "INPUT")) {
+            shape = SHAPE_LIST;
+            listKeyword = tokens.value(0);
+        } else if (tokens.is(0, TokenType.KEYWORD, "WRITE")) {
+            shape = SHAPE_WRITE;
+        } else if (first == TokenType.KEYWORD && tokens.valueEquals(0, "LET")) {
+            if (size > 2 && tokens.type(1) == TokenType.IDENTIFIER && tokens.is(2, TokenType.SYMBOL, "=")) {
+                shape = SHAPE_ASSIGN;
+                exprStart = 3;
             }
+        } else if (first == TokenType.IDENTIFIER && size > 1 && tokens.is(1, TokenType.SYMBOL, "=")) {
+            shape = SHAPE_ASSIGN;
+            exprStart = 2;
         }
 
-        // Check for semicolon at line end
-        if (!tokens.isEmpty() && tokens.get(tokens.size() - 1).value.equals(";")) {
-            return "Syntax error: Semicolon not allowed at line end";
-        }
-
-        // Line-specific syntax checks
-        if (tokens.isEmpty()) {
-            return "Syntax error: Empty line";
+        String shapeError = null;
+        if (shape == SHAPE_INVALID) {
+            shapeError = "Syntax error: Invalid line structure";
+        } else if (shape == SHAPE_WRITE && (size != 2 || tokens.type(1) != TokenType.IDENTIFIER)) {
+            shapeError = "Syntax error: WRITE expects one identifier";
+        } else if (shape == SHAPE_ASSIGN && exprStart >= size) {
+            shapeError = "Syntax error: Expected expression after '='";
         }
 
-        // BEGIN, END
-        if (tokens.size() == 1 && tokens.get(0).type == TokenType.KEYWORD &&
-                (tokens.get(0).value.equals("BEGIN") || tokens.get(0).value.equals("END"))) {
-            return null;
-        }
+        int invalid = -1;
+        int combined = -1;
+        TokenType previous = null;
+        boolean expectOperand = true;
+        int depth = 0;
+        for (int i = 0; i < size; i++) {
+            TokenType type = tokens.type(i);
+            if (type == TokenType.NUMBER) {
+                return "Syntax error: Numbers not allowed ('" + tokens.value(i) + "')";
+            }
+            if (invalid < 0 && type == TokenType.INVALID && !tokens.valueEquals(i, ";")) {
+                invalid = i;
+            }
+            if (combined < 0 && type == TokenType.OPERATOR && previous == TokenType.OPERATOR) {
+                combined = i - 1;
+            }
+            previous = type;
 
-        // INTEGER A, B, C
-        if (tokens.get(0).type == TokenType.KEYWORD && tokens.get(0).value.equals("INTEGER")) {
-            for (int i = 1; i < tokens.size(); i += 2) {
-                if (tokens.get(i).type != TokenType.IDENTIFIER) {
-                    return "Syntax error: Expected identifier after INTEGER";
+            if (shapeError != null || i == 0) {
+                continue;
+            }
+            if (shape == SHAPE_LIST) {
+                // INTEGER A, B, C / INPUT A, B, C
+                if (i % 2 == 1) {
+                    if (type != TokenType.IDENTIFIER) {
+                        shapeError = "Syntax error: Expected identifier after " + listKeyword;
+                    }
+                } else if (type != TokenType.SYMBOL) {
+                    shapeError = "Syntax error: Expected ',' or end after identifier";
                 }
-                if (i + 1 < tokens.size() && tokens.get(i + 1).type != TokenType.SYMBOL) {
-                    return "Syntax error: Expected ',' or end after identifier";
+            } else if (shape == SHAPE_ASSIGN && i >= exprStart) {
+                // Validate expression: ID (OP ID)* with parenthesised sub-expressions
+                if (expectOperand) {
+                    if (type == TokenType.IDENTIFIER) {
+                        expectOperand = false;
+                    } else if (tokens.is(i, TokenType.SYMBOL, "(")) {
+                        depth++;
+                    } else {
+                        shapeError = "Syntax error: Expected identifier in expression";
+                    }
+                } else if (type == TokenType.OPERATOR) {
+                    expectOperand = true;
+                } else if (depth > 0 && tokens.is(i, TokenType.SYMBOL, ")")) {
+                    depth--;
+                } else {
+                    shapeError = "Syntax error: Expected operator in expression";
                 }
             }
-            return null;
         }
-
-        // INPUT A, B, C
-        if (tokens.get(0).type == TokenType.KEYWORD && tokens.get(0).value.equals("INPUT")) {
-            for (int i = 1; i < tokens.size(); i += 2) {
-                if (tokens.get(i).type != TokenType.IDENTIFIER) {
-                    return "Syntax error: Expected identifier after INPUT";
-                }
-                if (i + 1 < tokens.size() && tokens.get(i + 1).type != TokenType.SYMBOL) {
-                    return "Syntax error: Expected ',' or end after identifier";
-                }
+        if (shapeError == null && shape == SHAPE_ASSIGN) {
+            if (expectOperand) {
+                shapeError = "Syntax error: Expected identifier in expression";
+            } else if (depth > 0) {
+                shapeError = "Syntax error: Unbalanced parentheses";
             }
-            return null;
         }
 
-        // WRITE ID
-        if (tokens.get(0).type == TokenType.KEYWORD && tokens.get(0).value.equals("WRITE")) {
-            if (tokens.size() != 2 || tokens.get(1).type != TokenType.IDENTIFIER) {
-                return "Syntax error: WRITE expects one identifier";
-            }
-            return null;
+        if (invalid >= 0) {
+            return "Syntax error: Invalid character '" + tokens.value(invalid) + "'";
+        }
+        if (combined >= 0) {
+            return "Syntax error: Combined operators '" + tokens.value(combined) + tokens.value(combined + 1) + "'";
+        }
+        if (tokens.valueEquals(size - 1, ";")) {
+            return "Syntax error: Semicolon not allowed at line end";
         }
+        return shapeError;
+    }
 
-        // LET ID = E or ID = E
-        if ((tokens.get(0).type == TokenType.KEYWORD && tokens.get(0).value.equals("LET") &&
-                tokens.get(1).type == TokenType.IDENTIFIER && tokens.get(2).type == TokenType.SYMBOL &&
-                tokens.get(2).value.equals("=")) ||
-                (tokens.get(0).type == TokenType.IDENTIFIER && tokens.get(1).type == TokenType.SYMBOL &&
-                        tokens.get(1).value.equals("="))) {
-            int exprStart = tokens.get(0).value.equals("LET") ? 3 : 2;
-            if (exprStart >= tokens.size()) {
-                return "Syntax error: Expected expression after '='";
-            }
-            // Validate expression: ID (OP ID)*
-            for (int i = exprStart; i < tokens.size(); i++) {
-                if (i % 2 == exprStart % 2) {
-                    if (tokens.get(i).type != TokenType.IDENTIFIER) {
-                        return "Syntax error: Expected identifier in expression";
-                    }
-                } else {
-                    if (tokens.get(i).type != TokenType.OPERATOR) {
-                        return "Syntax error: Expected operator in expression";
-                    }
-                }
+    // Record the identifiers of an INTEGER line
+    public static void declareIdentifiers(TokenStream tokens) {
+        declareIdentifiers(tokens, declaredIds);
+    }
+
+    public static void declareIdentifiers(TokenStream tokens, Set<String> declaredIds) {
+        if (tokens.is(0, TokenType.KEYWORD, "INTEGER")) {
+            for (int i = 1; i < tokens.size(); i += 2) {
+                declaredIds.add(tokens.value(i));
             }
-            return null;
         }
-
-        return "Syntax error: Invalid line structure";
     }
 
     // Semantic Analysis
     public static String checkSemanticErrors(List<Token> tokens) {
-        // Check for invalid symbols
-        for (Token token : tokens) {
-            if (token.value.matches("[%$&<>]")) {
-                return "Semantic error: Invalid symbol '" + token.value + "'";
-            }
-        }
+        return checkSemanticErrors(TokenStream.of(tokens));
+    }
 
-        // Check identifiers for INPUT, WRITE, and expressions
-        if (tokens.get(0).type == TokenType.KEYWORD && tokens.get(0).value.equals("INPUT")) {
-            for (int i = 1; i < tokens.size(); i += 2) {
-                if (!declaredIds.contains(tokens.get(i).value)) {
-                    return "Semantic error: Undeclared identifier '" + tokens.get(i).value + "'";
-                }
+    // Single pass: an invalid symbol anywhere on the line is reported before any
+    // undeclared identifier, as in the original two-step check
+    public static String checkSemanticErrors(TokenStream tokens) {
+        return checkSemanticErrors(tokens, declaredIds);
+    }
+
+    public static String checkSemanticErrors(TokenStream tokens, Set<String> declaredIds) {
+        int size = tokens.size();
+        boolean input = tokens.is(0, TokenType.KEYWORD, "INPUT");
+        boolean write = !input && tokens.is(0, TokenType.KEYWORD, "WRITE");
+        boolean let = tokens.is(0, TokenType.KEYWORD, "LET");
+        boolean assign = !input && !write && (let || tokens.type(0) == TokenType.IDENTIFIER);
+        int target = let ? 1 : 0;
+        int exprStart = let ? 3 : 2;
+
+        int undeclared = -1;
+        for (int i = 0; i < size; i++) {
+            if (tokens.length(i) == 1 && isInvalidSymbol(tokens.charAt(i))) {
+                return "Semantic error: Invalid symbol '" + tokens.value(i) + "'";
             }
-        } else if (tokens.get(0).type == TokenType.KEYWORD && tokens.get(0).value.equals("WRITE")) {
-            if (!declaredIds.contains(tokens.get(1).value)) {
-                return "Semantic error: Undeclared identifier '" + tokens.get(1).value + "'";
+            if (undeclared >= 0) {
+                continue;
             }
-        } else if ((tokens.get(0).type == TokenType.KEYWORD && tokens.get(0).value.equals("LET")) ||
-                tokens.get(0).type == TokenType.IDENTIFIER) {
-            String targetId = tokens.get(0).value.equals("LET") ? tokens.get(1).value : tokens.get(0).value;
-            if (!declaredIds.contains(targetId)) {
-                return "Semantic error: Undeclared identifier '" + targetId + "'";
+            boolean checked;
+            if (input) {
+                checked = i % 2 == 1;
+            } else if (write) {
+                checked = i == 1;
+            } else if (assign) {
+                checked = i == target || (i >= exprStart && tokens.type(i) == TokenType.IDENTIFIER);
+            } else {
+                checked = false;
             }
-            int exprStart = tokens.get(0).value.equals("LET") ? 3 : 2;
-            for (int i = exprStart; i < tokens.size(); i += 2) {
-                if (tokens.get(i).type == TokenType.IDENTIFIER && !declaredIds.contains(tokens.get(i).value)) {
-                    return "Semantic error: Undeclared identifier '" + tokens.get(i).value + "'";
-                }
+            if (checked && !declaredIds.contains(tokens.value(i))) {
+                undeclared = i;
             }
         }
-
+        if (undeclared >= 0) {
+            return "Semantic error: Undeclared identifier '" + tokens.value(undeclared) + "'";
+        }
         return null;
     }
 
+    private static boolean isInvalidSymbol(char c) {
+        switch (c) {
+            case '%':
+            case '$':
+            case '&':
+            case '<':
+            case '>':
+                return true;
+            default:
+                return false;
+        }
+    }
+
     // To Postfix
     public static List<String> toPostfix(List<Token> tokens, int exprStart) {
-        List<String> output = new ArrayList<>();
-        Stack<String> operatorStack = new Stack<>();
+        return toPostfix(TokenStream.of(tokens), exprStart);
+    }
+
+    public static List<String> toPostfix(TokenStream tokens, int exprStart) {
+        List<String> output = new ArrayList<>(tokens.size() - exprStart);
+        // Operator stack holds token indices
+        int[] operatorStack = new int[tokens.size()];
+        int top = 0;
         for (int i = exprStart; i < tokens.size(); i++) {
-            Token token = tokens.get(i);
-            if (token.type == TokenType.IDENTIFIER) {
-                output.add(token.value);
-            } else if (token.type == TokenType.OPERATOR) {
-                while (!operatorStack.isEmpty()
-                        && precedence.getOrDefault(operatorStack.peek(), 0) >= precedence.get(token.value)) {
-                    output.add(operatorStack.pop());
+            TokenType type = tokens.type(i);
+            if (type == TokenType.IDENTIFIER) {
+                output.add(tokens.value(i));
+            } else if (type == TokenType.OPERATOR) {
+                int prec = precedence(tokens.charAt(i));
+                while (top > 0 && precedence(tokens.charAt(operatorStack[top - 1])) >= prec) {
+                    output.add(tokens.value(operatorStack[--top]));
+                }
+                operatorStack[top++] = i;
+            } else if (tokens.is(i, TokenType.SYMBOL, "(")) {
+                operatorStack[top++] = i;
+            } else if (tokens.is(i, TokenType.SYMBOL, ")")) {
+                while (top > 0 && tokens.charAt(operatorStack[top - 1]) != '(') {
+                    output.add(tokens.value(operatorStack[--top]));
+                }
+                if (top > 0) {
+                    top--;
                 }
-                operatorStack.push(token.value);
             }
         }
-        while (!operatorStack.isEmpty()) {
-            output.add(operatorStack.pop());
+        while (top > 0) {
+            int op = operatorStack[--top];
+            if (tokens.type(op) == TokenType.OPERATOR) {
+                output.add(tokens.value(op));
+            }
         }
         return output;
     }
 
+    // Operator precedence
+    static int precedence(char op) {
+        switch (op) {
+            case '+':
+            case '-':
+                return 1;
+            case '*':
+            case '/':
+                return 2;
+            default:
+                return 0;
+        }
+    }
+
     // Generate ICR
     public static List<String> generateICR(List<String> postfix) {
-        List<String> icr = new ArrayList<>();
-        Stack<String> stack = new Stack<>();
+        return generateICR(postfix, new Ir.Symbols()).format();
+    }
+
+    public static Ir.Code generateICR(List<String> postfix, Ir.Symbols symbols) {
+        return generateICR(postfix, symbols, true);
+    }
+
+    // With 'recycle' every result is named after its position on the evaluation stack,
+    // so a temporary is reused as soon as its value has been consumed and an expression
+    // needs no more temporaries than its stack depth. Otherwise every operator gets a
+    // fresh t<N>, which is easier to follow when debugging.
+    public static Ir.Code generateICR(List<String> postfix, Ir.Symbols symbols, boolean recycle) {
+        Ir.Code icr = new Ir.Code(Ir.Form.THREE_ADDRESS, symbols);
+        int[] stack = new int[postfix.size()];
+        int top = 0;
         int tempCount = 1;
         for (String token : postfix) {
-            if (token.matches("[a-zA-Z]")) {
-                stack.push(token);
+            Ir.Op op = token.length() == 1 ? Ir.Op.arithmetic(token.charAt(0)) : null;
+            if (op == null) {
+                stack[top++] = symbols.intern(token);
             } else {
-                String op2 = stack.pop();
-                String op1 = stack.pop();
-                String temp = "t" + tempCount;
-                icr.add(temp + " = " + op1 + " " + token + " " + op2);
-                stack.push(temp);
-                tempCount++;
+                int op2 = stack[--top];
+                int op1 = stack[--top];
+                int temp = symbols.temp(recycle ? top + 1 : tempCount++);
+                icr.add(op, temp, op1, op2);
+                stack[top++] = temp;
             }
         }
         return icr;
     }
 
+    // ICR straight from the syntax tree (post-order, same numbering as from postfix)
+    public static Ir.Code generateICR(Ast.Expr expr, Ir.Symbols symbols) {
+        return generateICR(expr, symbols, true);
+    }
+
+    public static Ir.Code generateICR(Ast.Expr expr, Ir.Symbols symbols, boolean recycle) {
+        return generateICR(expr, symbols, recycle, null);
+    }
+
+    // 'results' (may be null) maps operation nodes to the variable their result is
+    // stored in instead of a temporary
+    public static Ir.Code generateICR(Ast.Expr expr, Ir.Symbols symbols, boolean recycle,
+                                      Map<Ast.Expr, String> results) {
+        Ir.Code icr = new Ir.Code(Ir.Form.THREE_ADDRESS, symbols);
+        lower(expr, icr, 1, recycle ? null : new int[] {1}, results);
+        return icr;
+    }
+
+    // Highest t<N> the code for 'expr' stores to; the final result goes to the target
+    public static int storedTemporaries(Ast.Expr expr, boolean recycle) {
+        if (expr instanceof Ast.Ident) {
+            return 0;
+        }
+        if (!recycle) {
+            return operators(expr) - 1;
+        }
+        Ast.BinaryOp bin = (Ast.BinaryOp) expr;
+        return Math.max(stackDepth(bin.left, 1), stackDepth(bin.right, 2));
+    }
+
+    private static int operators(Ast.Expr expr) {
+        if (expr instanceof Ast.Ident) {
+            return 0;
+        }
+        Ast.BinaryOp bin = (Ast.BinaryOp) expr;
+        return operators(bin.left) + operators(bin.right) + 1;
+    }
+
+    // Deepest stack position an operator result of 'expr' lands on
+    private static int stackDepth(Ast.Expr expr, int position) {
+        if (expr instanceof Ast.Ident) {
+            return 0;
+        }
+        Ast.BinaryOp bin = (Ast.BinaryOp) expr;
+        return Math.max(position, Math.max(stackDepth(bin.left, position), stackDepth(bin.right, position + 1)));
+    }
+
+    // Lowers 'expr' with its value ending up at stack 'position'; 'tempCount' is the
+    // next monotonic temporary, or null to name results by position
+    private static int lower(Ast.Expr expr, Ir.Code icr, int position, int[] tempCount,
+                             Map<Ast.Expr, String> results) {
+        if (expr instanceof Ast.Ident) {
+            return icr.symbols.intern(((Ast.Ident) expr).name);
+        }
+        Ast.BinaryOp bin = (Ast.BinaryOp) expr;
+        int op1 = lower(bin.left, icr, position, tempCount, results);
+        int op2 = lower(bin.right, icr, position + 1, tempCount, results);
+        String result = results != null ? results.get(expr) : null;
+        int temp = result != null ? icr.symbols.intern(result)
+                : icr.symbols.temp(tempCount != null ? tempCount[0]++ : position);
+        icr.add(Ir.Op.arithmetic(bin.op), temp, op1, op2);
+        return temp;
+    }
+
     // Generate Assembly
     public static List<String> generateAssembly(List<String> icr, String target) {
-        List<String> assembly = new ArrayList<>();
-        Pattern pattern = Pattern.compile("(\\w+)\\s*([+\\-*/])\\s*(\\w+)");
+        Ir.Symbols symbols = new Ir.Symbols();
+        return generateAssembly(parseICR(icr, symbols), symbols.intern(target)).format();
+    }
+
+    public static Ir.Code generateAssembly(Ir.Code icr, int target) {
+        Ir.Code assembly = new Ir.Code(Ir.Form.ACCUMULATOR, icr.symbols);
         for (int i = 0; i < icr.size(); i++) {
-            String instruction = icr.get(i);
-            String[] parts = instruction.split("=");
-            if (parts.length != 2)
-                continue;
-            String temp = parts[0].trim();
-            String expression = parts[1].trim();
-            Matcher matcher = pattern.matcher(expression);
-            if (matcher.find()) {
-                String op1 = matcher.group(1);
-                String operator = matcher.group(2);
-                String op2 = matcher.group(3);
-                String storeDest = (i == icr.size() - 1) ? target : temp; // new
-                switch (operator) {
-                    case "+":
-                        assembly.add("LDA " + op1);
-                        assembly.add("ADD " + op2);
-                        assembly.add("STR " + storeDest); // temp to storeDest
-                        break;
-                    case "-":
-                        assembly.add("LDA " + op1);
-                        assembly.add("SUB " + op2);
-                        assembly.add("STR " + storeDest); // temp to storeDest
-                        break;
-                    case "*":
-                        assembly.add("LDA " + op1);
-                        assembly.add("MUL " + op2);
-                        assembly.add("STR " + storeDest); // temp to storeDest
-                        break;
-                    case "/":
-                        assembly.add("LDA " + op1);
-                        assembly.add("DIV " + op2);
-                        assembly.add("STR " + storeDest); // temp to storeDest
-                        break;
-                }
-            }
+            int storeDest = (i == icr.size() - 1) ? target : icr.dest(i);
+            assembly.add(Ir.Op.LDA, icr.left(i));
+            assembly.add(icr.op(i), icr.right(i));
+            assembly.add(Ir.Op.STR, storeDest);
         }
         return assembly;
     }
 
     // Optimize Assembly
     public static List<String> optimizeAssembly(List<String> assembly) {
-        List<String> optimized = new ArrayList<>();
-        for (int i = 0; i < assembly.size(); i += 3) {
-            if (i + 2 >= assembly.size())
-                break;
-            String instr1 = assembly.get(i);
-            String instr2 = assembly.get(i + 1);
-            String instr3 = assembly.get(i + 2);
-            String op1 = instr1.split(" ")[1];
-            String[] parts2 = instr2.split(" ");
-            String OP = parts2[0];
-            String op2 = parts2[1];
-            String temp = instr3.split(" ")[1];
-            String optimizedInstr = OP + " " + temp + ", " + op1 + ", " + op2;
-            optimized.add(optimizedInstr);
+        return optimizeAssembly(parseAssembly(assembly, new Ir.Symbols())).format();
+    }
+
+    // Every operation takes the accumulator as its left operand and the store after it
+    // as its destination, so "LDA a / ADD b / STR t1" becomes "ADD t1, a, b". This also
+    // reads peephole output: a second store of the same value becomes a copy (x + 0), and
+    // an operation whose value is never stored is dropped.
+    public static Ir.Code optimizeAssembly(Ir.Code assembly) {
+        Ir.Code optimized = new Ir.Code(Ir.Form.THREE_OPERAND, assembly.symbols);
+        // Symbol holding the accumulator's value, and the operation not stored yet
+        int accumulator = -1;
+        Ir.Op pending = null;
+        int left = -1;
+        int right = -1;
+        for (int i = 0; i < assembly.size(); i++) {
+            Ir.Op op = assembly.op(i);
+            int operand = assembly.operand(i);
+            if (op == Ir.Op.LDA) {
+                accumulator = operand;
+                pending = null;
+            } else if (op == Ir.Op.STR) {
+                if (pending != null) {
+                    optimized.add(pending, operand, left, right);
+                    pending = null;
+                } else if (accumulator < 0) {
+                    throw new IllegalArgumentException("Store before any load at instruction " + i);
+                } else if (accumulator != operand) {
+                    optimized.add(Ir.Op.ADD, operand, accumulator, assembly.symbols.intern(Simplifier.ZERO));
+                }
+                accumulator = operand;
+            } else if (pending != null || accumulator < 0) {
+                throw new IllegalArgumentException("Operation on an unstored value at instruction " + i);
+            } else {
+                pending = op;
+                left = accumulator;
+                right = operand;
+            }
         }
         return optimized;
     }
 
     // Generate TMC
     public static List<String> generateTMC(List<String> optimized) {
-        List<String> tmc = new ArrayList<>();
-        for (String instruction : optimized) {
-            String[] parts = instruction.split("[ ,]+");
-            if (parts.length != 4)
+        return generateTMC(parseThreeOperand(optimized, new Ir.Symbols()));
+    }
+
+    public static List<String> generateTMC(Ir.Code optimized) {
+        return TmcEmitter.disassemble(generateBinaryTMC(optimized));
+    }
+
+    // Binary TMC: four bytes per instruction (opcode, dest, op1, op2)
+    public static ByteBuffer generateBinaryTMC(Ir.Code optimized) {
+        return generateBinaryTMC(optimized, InstructionEncoder.DEFAULT);
+    }
+
+    public static ByteBuffer generateBinaryTMC(Ir.Code optimized, InstructionEncoder encoder) {
+        return encoder.encode(optimized);
+    }
+
+    // Readers for the textual listings, used by the List<String> overloads.
+    // Lines that do not have the expected shape are skipped.
+
+    // "t1 = a + b"
+    static Ir.Code parseICR(List<String> icr, Ir.Symbols symbols) {
+        Ir.Code code = new Ir.Code(Ir.Form.THREE_ADDRESS, symbols);
+        for (String instruction : icr) {
+            String[] parts = instruction.trim().split("\\s+");
+            if (parts.length != 5 || !parts[1].equals("=") || parts[3].length() != 1) {
                 continue;
-            String operation = parts[0];
-            String dest = parts[1];
-            String op1 = parts[2];
-            String op2 = parts[3];
+            }
+            Ir.Op op = Ir.Op.arithmetic(parts[3].charAt(0));
+            if (op != null) {
+                code.add(op, symbols.intern(parts[0]), symbols.intern(parts[2]), symbols.intern(parts[4]));
+            }
+        }
+        return code;
+    }
 
-            String opBinary = opToBinary.getOrDefault(operation, "00000000");
-            String destBinary = tpToBinary.getOrDefault(dest, "01110100");
-            String op1Binary = tpToBinary.getOrDefault(op1, "01110100");
-            String op2Binary = tpToBinary.getOrDefault(op2, "01110100");
+    // "LDA a"
+    static Ir.Code parseAssembly(List<String> assembly, Ir.Symbols symbols) {
+        Ir.Code code = new Ir.Code(Ir.Form.ACCUMULATOR, symbols);
+        for (String instruction : assembly) {
+            String[] parts = instruction.trim().split("\\s+");
+            Ir.Op op = parts.length == 2 ? opcode(parts[0]) : null;
+            if (op != null) {
+                code.add(op, symbols.intern(parts[1]));
+            }
+        }
+        return code;
+    }
 
-            String line = opBinary + "  " + destBinary + "  " + op1Binary + "  " + op2Binary;
-            tmc.add(line);
+    // "ADD t1, a, b"
+    static Ir.Code parseThreeOperand(List<String> optimized, Ir.Symbols symbols) {
+        Ir.Code code = new Ir.Code(Ir.Form.THREE_OPERAND, symbols);
+        for (String instruction : optimized) {
+            String[] parts = instruction.split("[ ,]+");
+            Ir.Op op = parts.length == 4 ? opcode(parts[0]) : null;
+            if (op != null && op.isArithmetic()) {
+                code.add(op, symbols.intern(parts[1]), symbols.intern(parts[2]), symbols.intern(parts[3]));
+            }
         }
-        return tmc;
+        return code;
     }
 
-    public static void main(String[] args) {
+    private static Ir.Op opcode(String mnemonic) {
+        for (Ir.Op op : Ir.Op.values()) {
+            if (op.name().equals(mnemonic)) {
+                return op;
+            }
+        }
+        return null;
+    }
+
+    public static void main(String[] args) throws IOException {
+        // --batch <files or directories> compiles every program file in parallel;
+        // --threads=N sets the worker count (default: one per core)
+        List<String> arguments = Arrays.asList(args);
+        if (arguments.contains("--batch")) {
+            int threads = Runtime.getRuntime().availableProcessors();
+            List<String> paths = new ArrayList<>();
+            for (String arg : arguments) {
+                if (arg.startsWith("--threads=")) {
+                    threads = Integer.parseInt(arg.substring("--threads=".length()));
+                } else if (!arg.startsWith("--")) {
+                    paths.add(arg);
+                }
+            }
+            try (CompilerSession session = CompilerSession.fromArgs(args)) {
+                BatchCompiler.run(paths, session, threads, System.out);
+            }
+            return;
+        }
+
+        // --incremental <files> compiles the files as successive versions of one program,
+        // recompiling only the lines each version changes, and lists the last version
+        // (in the ASCII encoding, as with --legacy-tmc)
+        int incremental = arguments.indexOf("--incremental");
+        if (incremental >= 0) {
+            try (CompilerSession session = CompilerSession.fromArgs(args)) {
+                IncrementalCompiler compiler = new IncrementalCompiler(session);
+                List<String> reports = new ArrayList<>();
+                for (String arg : arguments.subList(incremental + 1, arguments.size())) {
+                    if (arg.startsWith("--")) {
+                        continue;
+                    }
+                    long start = System.nanoTime();
+                    IncrementalCompiler.Report report = compiler.compile(
+                            Files.readAllLines(Paths.get(arg), StandardCharsets.UTF_8));
+                    reports.add(String.format(Locale.ROOT, "%s: %s in %.1f ms", arg, report,
+                            (System.nanoTime() - start) / 1e6));
+                }
+                System.out.println("V Compiler all at once ");
+                System.out.println("------------------------");
+                System.out.print(compiler.listing());
+                System.out.println("\nIncremental builds:");
+                for (String report : reports) {
+                    System.out.println("    " + report);
+                }
+                System.out.println("\nCompilation Complete");
+            }
+            return;
+        }
+
+        // --stream <file> compiles one program of any size through a memory-mapped reader,
+        // writing the listing as it goes
+        int stream = arguments.indexOf("--stream");
+        if (stream >= 0 && stream + 1 < args.length) {
+            try (CompilerSession session = CompilerSession.fromArgs(args)) {
+                Writer out = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8), 1 << 16);
+                out.write("V Compiler all at once \n");
+                out.write("------------------------\n");
+                CompilationUnit unit = session.newUnit(out);
+                TmcEmitter tmc = binaryOutput(arguments, unit);
+                try (SourceReader reader = SourceReader.open(Paths.get(args[stream + 1]))) {
+                    unit.compile(reader);
+                } finally {
+                    if (tmc != null) {
+                        tmc.close();
+                    }
+                }
+                writeReports(arguments, unit, out);
+                execute(arguments, unit, out);
+                out.write("\nCompilation Complete\n");
+                out.flush();
+            }
+            return;
+        }
+
         String[] program = {
                 "BEGIN",
                 "INTEGER A, B, C, E, M, N, G, H, I, a, c",
@@ -425,89 +657,134 @@ public class Compiler3 {
                 "END"
         };
 
-        System.out.println("V Compiler all at once ");
-        System.out.println("------------------------");
-
-        for (int lineNum = 1; lineNum <= program.length; lineNum++) {
-            String line = program[lineNum - 1];
-            System.out.printf("\nLine %d: %s\n", lineNum, line);
-
-            // Lexical Analysis
-            List<Token> tokens = tokenize(line);
-            String lexicalError = checkLexicalErrors(tokens);
-            if (lexicalError != null) {
-                System.out.println("  " + lexicalError);
-                continue;
+        // Pass --dfa to use the table-driven scanner instead of the regex one,
+        // --sequential-backend to generate code for every line on the main thread,
+        // --no-tmc-listing to leave the TMC text out of the listing,
+        // --legacy-tmc to encode TMC operands in ASCII instead of as numbered slots
+        // (which the listing follows with a slot table),
+        // --registers=N to allocate temporaries to N registers,
+        // --monotonic-temps to give every operator a fresh temporary instead of reusing dead ones,
+        // --peephole to also list the assembly after the accumulator peephole pass,
+        // --cse to reuse values computed by earlier statements,
+        // --simplify to apply algebraic identities to the ICR (--simplify-disable=<rules> to skip some),
+        // --rebalance to reassociate + and * chains into minimal-depth trees,
+        // --dead-stores to drop assignments whose value is never written out and
+        // --run (with --input=<values> for INPUT) to run the program's TMC afterwards
+        // (--jit to run it as JVM bytecode instead); --cache=N reuses the back end results
+        // of up to N distinct assignments and --cache-dir=<dir> keeps them between runs
+        try (CompilerSession session = CompilerSession.fromArgs(args)) {
+            System.out.println("V Compiler all at once ");
+            System.out.println("------------------------");
+
+            CompilationUnit unit = session.newUnit(System.out);
+            TmcEmitter tmc = binaryOutput(arguments, unit);
+            try {
+                unit.compile(program);
+            } finally {
+                if (tmc != null) {
+                    tmc.close();
+                }
             }
+            writeReports(arguments, unit, System.out);
+            execute(arguments, unit, System.out);
 
-            // Display tokens concisely
-            StringBuilder tokenStr = new StringBuilder();
-            for (int i = 0; i < tokens.size(); i++) {
-                tokenStr.append(String.format("%s (%s)", tokens.get(i).value, tokens.get(i).type));
-                if (i < tokens.size() - 1)
-                    tokenStr.append(", ");
-            }
-            System.out.println("  Tokens: " + tokenStr);
+            System.out.println("\nCompilation Complete");
+        }
+    }
 
-            // Syntax Analysis
-            String syntaxError = checkSyntaxErrors(tokens);
-            if (syntaxError != null) {
-                System.out.println("  " + syntaxError);
-                continue;
+    // With --cache or --cache-dir the listing ends with the caches' statistics; with
+    // --cse, the instructions saved; with --dead-stores, the dropped assignments and
+    // unused variables; unless --legacy-tmc, the slot table, and with --tmc-out=<file> as well
+    // <file>.slots gets the name of slot i on line i
+    private static void writeReports(List<String> arguments, CompilationUnit unit, Appendable out)
+            throws IOException {
+        if (unit.session().cache() != null) {
+            out.append("\nCompilation cache: ").append(unit.session().cache().toString()).append('\n');
+        }
+        if (unit.session().diskCache() != null) {
+            out.append("\nDisk cache: ").append(unit.session().diskCache().toString()).append('\n');
+        }
+        if (unit.savedInstructions() > 0) {
+            out.append("\nCommon subexpressions: ").append(String.valueOf(unit.savedInstructions()))
+                    .append(" instructions saved\n");
+        }
+        if (!unit.removedStatements().isEmpty()) {
+            out.append("\nDead stores removed: lines ").append(join(unit.removedStatements())).append('\n');
+        }
+        if (!unit.unusedVariables().isEmpty()) {
+            out.append("\nUnused variables: ").append(join(unit.unusedVariables())).append('\n');
+        }
+        if (unit.slotTable().isEmpty()) {
+            return;
+        }
+        out.append("\nSlot Table:\n");
+        for (String line : unit.slotTable()) {
+            out.append("    ").append(line).append('\n');
+        }
+        for (String arg : arguments) {
+            if (arg.startsWith("--tmc-out=")) {
+                Files.write(Paths.get(arg.substring("--tmc-out=".length()) + ".slots"), unit.slotNames(),
+                        StandardCharsets.UTF_8);
             }
+        }
+    }
 
-            // Update declared identifiers
-            if (tokens.get(0).type == TokenType.KEYWORD && tokens.get(0).value.equals("INTEGER")) {
-                for (int i = 1; i < tokens.size(); i += 2) {
-                    declaredIds.add(tokens.get(i).value);
-                }
+    // With --run or --input=3,4,5 the compiled program runs on TmcMachine, reading the
+    // --input values in order, and its WRITEs are listed; --jit compiles it to a JVM
+    // class first (see JvmBackend)
+    private static void execute(List<String> arguments, CompilationUnit unit, Appendable out) throws IOException {
+        int[] inputs = null;
+        for (String arg : arguments) {
+            if ((arg.equals("--run") || arg.equals("--jit")) && inputs == null) {
+                inputs = new int[0];
+            } else if (arg.startsWith("--input=")) {
+                String values = arg.substring("--input=".length());
+                inputs = values.isEmpty() ? new int[0]
+                        : Arrays.stream(values.split(",")).mapToInt(v -> Integer.parseInt(v.trim())).toArray();
             }
-
-            // Semantic Analysis
-            String semanticError = checkSemanticErrors(tokens);
-            if (semanticError != null) {
-                System.out.println("  " + semanticError);
-                continue;
+        }
+        if (inputs == null) {
+            return;
+        }
+        TmcMachine machine = unit.machine();
+        JvmBackend.Program compiled = arguments.contains("--jit") ? JvmBackend.compile(machine) : null;
+        out.append("\nExecution:\n");
+        if (compiled != null) {
+            out.append("    JVM class: ").append(String.valueOf(compiled.classBytes)).append(" bytes, ")
+                    .append(String.valueOf(compiled.parts)).append(compiled.parts == 1 ? " part\n" : " parts\n");
+        }
+        try {
+            TmcMachine.Result result = compiled != null ? compiled.run(inputs) : machine.run(inputs);
+            for (int i = 0; i < result.size(); i++) {
+                out.append("    WRITE ").append(machine.name(result.register(i))).append(" = ")
+                        .append(String.valueOf(result.value(i))).append('\n');
             }
+            out.append("    ").append(String.valueOf(result.instructions)).append(" instructions executed\n");
+        } catch (ArithmeticException | IllegalStateException e) {
+            out.append("    Stopped: ").append(e.getMessage()).append('\n');
+        }
+    }
 
-            System.out.println("  Status: Valid");
-
-            // Check if it's an expression line and generate code
-            if ((tokens.get(0).type == TokenType.KEYWORD && tokens.get(0).value.equals("LET")) ||
-                    (tokens.get(0).type == TokenType.IDENTIFIER && tokens.get(1).type == TokenType.SYMBOL && tokens.get(1).value.equals("="))) {
-                String target = tokens.get(0).value.equals("LET") ? tokens.get(1).value : tokens.get(0).value;
-                int exprStart = tokens.get(0).value.equals("LET") ? 3 : 2;
-                List<String> postfix = toPostfix(tokens, exprStart);
-                List<String> icr = generateICR(postfix);
-                System.out.println("  Postfix: " + postfix);
-                System.out.println("  ICR:");
-                for (String instr : icr) {
-                    System.out.println("    " + instr);
-                }
-
-                // Code Generation
-                List<String> assembly = generateAssembly(icr, target);
-                System.out.println("  Assembly:");
-                for (String instr : assembly) {
-                    System.out.println("    " + instr);
-                }
-
-                // Code Optimization
-                List<String> optimized = optimizeAssembly(assembly);
-                System.out.println("  Optimized Assembly:");
-                for (String instr : optimized) {
-                    System.out.println("    " + instr);
-                }
-
-                // Target Machine Code
-                List<String> tmc = generateTMC(optimized);
-                System.out.println("  TMC:");
-                for (String code : tmc) {
-                    System.out.println("    " + code);
-                }
+    private static String join(List<?> items) {
+        StringBuilder text = new StringBuilder();
+        for (Object item : items) {
+            if (text.length() > 0) {
+                text.append(", ");
             }
+            text.append(item);
         }
+        return text.toString();
+    }
 
-        System.out.println("\nCompilation Complete");
+    // --tmc-out=<file> also writes the binary TMC of every statement to a file
+    private static TmcEmitter binaryOutput(List<String> arguments, CompilationUnit unit) throws IOException {
+        for (String arg : arguments) {
+            if (arg.startsWith("--tmc-out=")) {
+                TmcEmitter emitter = TmcEmitter.toFile(Paths.get(arg.substring("--tmc-out=".length())));
+                unit.binaryOutput(emitter);
+                return emitter;
+            }
+        }
+        return null;
     }
 }
\ No newline at end of file
@@ -0,0 +1,265 @@
+package allAtOnce;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+
+// Compiler configuration shared by any number of compilation units.
+// A session holds no per-program state, so units created from it can run concurrently;
+// its optional compilation caches are shared by all of them and thread-safe. A session
+// with an on-disk cache holds the cache directory open until it is closed.
+public final class CompilerSession implements Closeable {
+    // Use the table-driven scanner instead of the regex one
+    final boolean dfaScanner;
+    // Generate code for a unit's assignments in parallel
+    final boolean parallelBackend;
+    // Print the disassembled TMC in the listing
+    final boolean tmcListing;
+    // Encode TMC operands as per-program slots (see SlotAllocator) rather than the
+    // ASCII / 't' encoding, which gives distinct temporaries the same byte
+    final boolean slotEncoding;
+    // Registers for the linear-scan allocator; 0 leaves temporaries in memory
+    final int registers;
+    // Reuse dead temporaries in the ICR instead of numbering every result afresh
+    final boolean recycleTemporaries;
+    // List the assembly after the accumulator peephole pass
+    final boolean peephole;
+    // Reuse values computed by earlier assignments (see CommonSubexpressions)
+    final boolean commonSubexpressions;
+    // Algebraic simplifications applied to the ICR; empty leaves it as generated
+    final Set<Simplifier.Rule> simplifierRules;
+    // Reassociate + and * chains into minimal-depth trees (see Rebalancer)
+    final boolean rebalance;
+    // Drop assignments whose value is never observed; buffers the whole program
+    final boolean deadStores;
+    // Also encode INPUT and WRITE and keep the whole program's TMC for TmcMachine;
+    // needs slot encoding
+    final boolean executable;
+    // Back end results reused across statements and units; null when not caching
+    final CompilationCache cache;
+    // Back end results kept between runs; null when not caching on disk
+    final DiskCache diskCache;
+
+    private CompilerSession(Builder builder) {
+        this.dfaScanner = builder.dfaScanner;
+        this.parallelBackend = builder.parallelBackend;
+        this.tmcListing = builder.tmcListing;
+        this.slotEncoding = builder.slotEncoding;
+        this.registers = builder.registers;
+        this.recycleTemporaries = builder.recycleTemporaries;
+        this.peephole = builder.peephole;
+        this.commonSubexpressions = builder.commonSubexpressions;
+        this.simplifierRules = Collections.unmodifiableSet(EnumSet.copyOf(builder.simplifierRules));
+        this.rebalance = builder.rebalance;
+        this.deadStores = builder.deadStores;
+        this.executable = builder.executable;
+        this.cache = builder.cacheCapacity > 0 ? new CompilationCache(builder.cacheCapacity) : null;
+        try {
+            this.diskCache = builder.cacheDirectory != null ? DiskCache.open(builder.cacheDirectory,
+                    CompilationUnit.OUTPUT_VERSION) : null;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    // The session's compilation cache, or null
+    public CompilationCache cache() {
+        return cache;
+    }
+
+    // The session's on-disk cache, or null
+    public DiskCache diskCache() {
+        return diskCache;
+    }
+
+    // Options the back end output of an assignment depends on, besides the statement
+    // and its operand encoding
+    String backEndOptions() {
+        return "temps=" + (recycleTemporaries ? "recycled" : "monotonic") + " simplify=" + simplifierRules
+                + " peephole=" + peephole + " registers=" + registers + " slots=" + slotEncoding
+                + " executable=" + executable;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (diskCache != null) {
+            diskCache.close();
+        }
+    }
+
+    // Session configured from command-line flags (see Compiler3.main)
+    public static CompilerSession fromArgs(String[] args) {
+        Builder builder = builder();
+        Set<Simplifier.Rule> rules = EnumSet.noneOf(Simplifier.Rule.class);
+        for (String arg : args) {
+            if (arg.equals("--dfa")) {
+                builder.dfaScanner(true);
+            } else if (arg.equals("--sequential-backend")) {
+                builder.parallelBackend(false);
+            } else if (arg.equals("--no-tmc-listing")) {
+                builder.tmcListing(false);
+            } else if (arg.equals("--slots")) {
+                builder.slotEncoding(true);
+            } else if (arg.equals("--legacy-tmc") || arg.equals("--incremental")) {
+                // Incremental builds reuse each line's code, which slots numbered per
+                // program would invalidate
+                builder.slotEncoding(false);
+            } else if (arg.startsWith("--registers=")) {
+                builder.registers(Integer.parseInt(arg.substring("--registers=".length())));
+            } else if (arg.equals("--monotonic-temps")) {
+                builder.recycleTemporaries(false);
+            } else if (arg.equals("--peephole")) {
+                builder.peephole(true);
+            } else if (arg.equals("--cse")) {
+                builder.commonSubexpressions(true);
+            } else if (arg.equals("--simplify")) {
+                rules.addAll(EnumSet.allOf(Simplifier.Rule.class));
+            } else if (arg.equals("--rebalance")) {
+                builder.rebalance(true);
+            } else if (arg.equals("--dead-stores")) {
+                builder.deadStores(true);
+            } else if (arg.equals("--run") || arg.equals("--jit") || arg.startsWith("--input=")) {
+                builder.executable(true);
+            } else if (arg.startsWith("--cache=")) {
+                builder.cacheCapacity(Integer.parseInt(arg.substring("--cache=".length())));
+            } else if (arg.startsWith("--cache-dir=")) {
+                builder.cacheDirectory(Paths.get(arg.substring("--cache-dir=".length())));
+            }
+        }
+        // --simplify-disable=self-divide,zero-divide turns single rules off again
+        for (String arg : args) {
+            if (arg.startsWith("--simplify-disable=")) {
+                for (String rule : arg.substring("--simplify-disable=".length()).split(",")) {
+                    rules.remove(Simplifier.Rule.of(rule));
+                }
+            }
+        }
+        return builder.simplifierRules(rules).build();
+    }
+
+    public CompilationUnit newUnit() {
+        return new CompilationUnit(this, new StringBuilder());
+    }
+
+    // Unit writing its listing to the given sink as lines are compiled
+    public CompilationUnit newUnit(Appendable out) {
+        return new CompilationUnit(this, out);
+    }
+
+    // Compiles a whole program into a fresh unit
+    public CompilationUnit compile(String[] program) {
+        CompilationUnit unit = newUnit();
+        unit.compile(program);
+        return unit;
+    }
+
+    public static final class Builder {
+        private boolean dfaScanner;
+        private boolean parallelBackend = true;
+        private boolean tmcListing = true;
+        private boolean slotEncoding = true;
+        private int registers;
+        private boolean recycleTemporaries = true;
+        private boolean peephole;
+        private boolean commonSubexpressions;
+        private Set<Simplifier.Rule> simplifierRules = EnumSet.noneOf(Simplifier.Rule.class);
+        private boolean rebalance;
+        private boolean deadStores;
+        private boolean executable;
+        private int cacheCapacity;
+        private Path cacheDirectory;
+
+        private Builder() {
+        }
+
+        public Builder dfaScanner(boolean dfaScanner) {
+            this.dfaScanner = dfaScanner;
+            return this;
+        }
+
+        public Builder parallelBackend(boolean parallelBackend) {
+            this.parallelBackend = parallelBackend;
+            return this;
+        }
+
+        public Builder tmcListing(boolean tmcListing) {
+            this.tmcListing = tmcListing;
+            return this;
+        }
+
+        public Builder slotEncoding(boolean slotEncoding) {
+            this.slotEncoding = slotEncoding;
+            return this;
+        }
+
+        public Builder registers(int registers) {
+            if (registers < 0) {
+                throw new IllegalArgumentException("Negative register count: " + registers);
+            }
+            this.registers = registers;
+            return this;
+        }
+
+        public Builder recycleTemporaries(boolean recycleTemporaries) {
+            this.recycleTemporaries = recycleTemporaries;
+            return this;
+        }
+
+        public Builder peephole(boolean peephole) {
+            this.peephole = peephole;
+            return this;
+        }
+
+        public Builder commonSubexpressions(boolean commonSubexpressions) {
+            this.commonSubexpressions = commonSubexpressions;
+            return this;
+        }
+
+        public Builder simplifierRules(Set<Simplifier.Rule> simplifierRules) {
+            this.simplifierRules = EnumSet.noneOf(Simplifier.Rule.class);
+            this.simplifierRules.addAll(simplifierRules);
+            return this;
+        }
+
+        public Builder rebalance(boolean rebalance) {
+            this.rebalance = rebalance;
+            return this;
+        }
+
+        public Builder deadStores(boolean deadStores) {
+            this.deadStores = deadStores;
+            return this;
+        }
+
+        public Builder executable(boolean executable) {
+            this.executable = executable;
+            return this;
+        }
+
+        // Statements whose back end results are cached; 0 disables the cache
+        public Builder cacheCapacity(int cacheCapacity) {
+            if (cacheCapacity < 0) {
+                throw new IllegalArgumentException("Negative cache capacity: " + cacheCapacity);
+            }
+            this.cacheCapacity = cacheCapacity;
+            return this;
+        }
+
+        // Directory of the on-disk cache (see DiskCache); null disables it
+        public Builder cacheDirectory(Path cacheDirectory) {
+            this.cacheDirectory = cacheDirectory;
+            return this;
+        }
+
+        public CompilerSession build() {
+            if (executable && !slotEncoding) {
+                throw new IllegalStateException("Executable code needs slot encoding");
+            }
+            return new CompilerSession(this);
+        }
+    }
+}
@@ -0,0 +1,211 @@
+package allAtOnce;
+
+import java.util.*;
+
+// Single-pass scanner driven by a character-class table.
+// Produces the same token stream as Compiler3.tokenize() without a regex engine.
+final class DfaScanner {
+    // Character classes
+    static final byte LETTER = 0;   // [a-zA-Z]
+    static final byte DIGIT = 1;    // [0-9]
+    static final byte WORD = 2;     // other \b word characters ('_', non-ASCII letters/digits)
+    static final byte OPERATOR = 3; // [+-*/]
+    static final byte SYMBOL = 4;   // [=,()]
+    static final byte BAD = 5;      // [;%$&<>]
+    static final byte SPACE = 6;    // \s
+    static final byte OTHER = 7;    // anything else
+
+    // Scanner states
+    private static final int START = 0;
+    private static final int IN_LETTERS = 1;
+    private static final int IN_DIGITS = 2;
+    private static final int IN_SPACE = 3;
+    private static final int ACCEPT = 4;
+
+    // Transition table: NEXT[state][class]
+    private static final int[][] NEXT = new int[4][8];
+    static {
+        for (int[] row : NEXT) {
+            Arrays.fill(row, ACCEPT);
+        }
+        NEXT[START][LETTER] = IN_LETTERS;
+        NEXT[START][DIGIT] = IN_DIGITS;
+        NEXT[START][SPACE] = IN_SPACE;
+        NEXT[IN_LETTERS][LETTER] = IN_LETTERS;
+        NEXT[IN_DIGITS][DIGIT] = IN_DIGITS;
+        NEXT[IN_SPACE][SPACE] = IN_SPACE;
+    }
+
+    // ASCII character classes
+    private static final byte[] CLASSES = new byte[128];
+    static {
+        Arrays.fill(CLASSES, OTHER);
+        for (char c = 'a'; c <= 'z'; c++) {
+            CLASSES[c] = LETTER;
+            CLASSES[c - 'a' + 'A'] = LETTER;
+        }
+        for (char c = '0'; c <= '9'; c++) {
+            CLASSES[c] = DIGIT;
+        }
+        CLASSES['_'] = WORD;
+        for (char c : "+-*/".toCharArray()) {
+            CLASSES[c] = OPERATOR;
+        }
+        for (char c : "=,()".toCharArray()) {
+            CLASSES[c] = SYMBOL;
+        }
+        for (char c : ";%$&<>".toCharArray()) {
+            CLASSES[c] = BAD;
+        }
+        for (char c : " \t\n\u000B\f\r".toCharArray()) {
+            CLASSES[c] = SPACE;
+        }
+    }
+
+    private DfaScanner() {
+    }
+
+    static byte classOf(int c) {
+        if (c < 128) {
+            return CLASSES[c];
+        }
+        return c == '_' || Character.isLetterOrDigit(c) ? WORD : OTHER;
+    }
+
+    // Same notion of word character as \b in java.util.regex: letters, digits, '_',
+    // and non-spacing marks attached to a letter or digit
+    static boolean isWordAt(CharSequence line, int i) {
+        int c = Character.codePointAt(line, i);
+        if (c == '_' || Character.isLetterOrDigit(c)) {
+            return true;
+        }
+        if (Character.getType(c) != Character.NON_SPACING_MARK) {
+            return false;
+        }
+        for (int k = i; k >= 0; k--) {
+            int base = Character.codePointAt(line, k);
+            if (Character.isLetterOrDigit(base)) {
+                return true;
+            }
+            if (Character.getType(base) != Character.NON_SPACING_MARK) {
+                return false;
+            }
+        }
+        return false;
+    }
+
+    static boolean isWordBefore(CharSequence line, int i) {
+        if (i == 0) {
+            return false;
+        }
+        int c = Character.codePointBefore(line, i);
+        if (c == '_' || Character.isLetterOrDigit(c)) {
+            return true;
+        }
+        return Character.getType(c) == Character.NON_SPACING_MARK && isWordAt(line, i - 1);
+    }
+
+    // Keyword lookup without substring allocation
+    static String keyword(CharSequence line, int start, int end) {
+        switch (end - start) {
+            case 3:
+                if (regionEquals(line, start, "LET")) return "LET";
+                if (regionEquals(line, start, "END")) return "END";
+                return null;
+            case 5:
+                if (regionEquals(line, start, "BEGIN")) return "BEGIN";
+                if (regionEquals(line, start, "INPUT")) return "INPUT";
+                if (regionEquals(line, start, "WRITE")) return "WRITE";
+                return null;
+            case 7:
+                if (regionEquals(line, start, "INTEGER")) return "INTEGER";
+                return null;
+            default:
+                return null;
+        }
+    }
+
+    static boolean regionEquals(CharSequence line, int start, String s) {
+        for (int k = 0; k < s.length(); k++) {
+            if (line.charAt(start + k) != s.charAt(k)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Runs the DFA from 'start' and returns the end of the longest run
+    private static int run(CharSequence line, int start) {
+        int n = line.length();
+        int state = START;
+        int i = start;
+        while (i < n) {
+            int next = NEXT[state][classOf(line.charAt(i))];
+            if (next == ACCEPT) {
+                break;
+            }
+            state = next;
+            i++;
+        }
+        return i;
+    }
+
+    public static List<Compiler3.Token> scan(CharSequence line) {
+        TokenStream tokens = new TokenStream();
+        scan(line, tokens);
+        return tokens.toList();
+    }
+
+    // Scans a line into a reusable packed stream without allocating per token
+    public static void scan(CharSequence line, TokenStream tokens) {
+        tokens.reset(line);
+        int n = line.length();
+        int i = 0;
+        while (i < n) {
+            int c = Character.codePointAt(line, i);
+            int width = Character.charCount(c);
+            byte cls = classOf(c);
+            switch (cls) {
+                case LETTER: {
+                    // \b([a-zA-Z]+)\b needs a boundary on both sides of the whole run
+                    int end = run(line, i);
+                    boolean boundary = !isWordBefore(line, i) && (end == n || !isWordAt(line, end));
+                    if (!boundary) {
+                        tokens.add(Compiler3.TokenType.INVALID, i, 1);
+                        i++;
+                        break;
+                    }
+                    if (keyword(line, i, end) != null) {
+                        tokens.add(Compiler3.TokenType.KEYWORD, i, end - i);
+                    } else {
+                        tokens.add(Compiler3.TokenType.IDENTIFIER, i, end - i);
+                    }
+                    i = end;
+                    break;
+                }
+                case DIGIT: {
+                    int end = run(line, i);
+                    tokens.add(Compiler3.TokenType.NUMBER, i, end - i);
+                    i = end;
+                    break;
+                }
+                case OPERATOR:
+                    tokens.add(Compiler3.TokenType.OPERATOR, i, 1);
+                    i++;
+                    break;
+                case SYMBOL:
+                    tokens.add(Compiler3.TokenType.SYMBOL, i, 1);
+                    i++;
+                    break;
+                case SPACE:
+                    i = run(line, i);
+                    break;
+                default:
+                    // BAD, WORD and OTHER all fall through to a single INVALID code point
+                    tokens.add(Compiler3.TokenType.INVALID, i, width);
+                    i += width;
+                    break;
+            }
+        }
+    }
+}
@@ -0,0 +1,313 @@
+package allAtOnce;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+
+// Back end results kept in a directory between runs, so rebuilding a program after a
+// small edit only generates code for the lines that changed. Each record holds one
+// assignment's listing (without the TMC) and its binary TMC, keyed by the statement's
+// normalized tokens, the back end options and the operand bytes its code is encoded
+// with (see CompilationUnit.diskKey).
+//
+// Two files: "data" is append-only, one record after another; "index" is an
+// open-addressing hash table from 64-bit key hashes to record offsets, memory-mapped
+// so a lookup touches no system call until the record itself is read. Records store
+// their full key, so hash collisions only cost a read. The index is rebuilt at twice
+// the size when it gets half full. A record the index points past the end of the data
+// (an interrupted write) is treated as missing.
+//
+// The index header records the file layout version and the version of the compiler
+// output the records hold (CompilationUnit.OUTPUT_VERSION); a cache written by a
+// compiler that differs in either is emptied when opened.
+//
+// One process at a time: opening the directory locks it. All methods are thread-safe.
+public final class DiskCache implements Closeable {
+    // Index header: magic, layout version, output version, capacity, entries
+    private static final int MAGIC = 0x544D4349;
+    private static final int VERSION = 2;
+    private static final int HEADER_BYTES = 20;
+    private static final int CAPACITY_OFFSET = 12;
+    private static final int COUNT_OFFSET = 16;
+    // Index entry: key hash (0 = empty), record offset
+    private static final int ENTRY_BYTES = 16;
+    private static final int INITIAL_CAPACITY = 1 << 12;
+    // Record header: key, listing and TMC lengths
+    private static final int RECORD_HEADER_BYTES = 12;
+
+    // A cached statement
+    static final class Record {
+        final String listing;
+        final byte[] tmc;
+
+        Record(String listing, byte[] tmc) {
+            this.listing = listing;
+            this.tmc = tmc;
+        }
+    }
+
+    private final Path directory;
+    private final int outputVersion;
+    private final FileChannel lockChannel;
+    private final FileLock lock;
+    private final FileChannel data;
+    private FileChannel indexChannel;
+    private MappedByteBuffer index;
+    private int capacity;
+    private int count;
+    private long hits;
+    private long misses;
+    private long stores;
+
+    private DiskCache(Path directory, int outputVersion) throws IOException {
+        this.directory = directory;
+        this.outputVersion = outputVersion;
+        Files.createDirectories(directory);
+        lockChannel = FileChannel.open(directory.resolve("lock"), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        FileLock lock = null;
+        FileChannel data = null;
+        try {
+            lock = lockChannel.tryLock();
+            if (lock == null) {
+                throw new IOException("Cache directory " + directory + " is in use by another process");
+            }
+            data = FileChannel.open(directory.resolve("data"), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+            this.lock = lock;
+            this.data = data;
+            openIndex(directory.resolve("index"));
+        } catch (IOException | RuntimeException e) {
+            // Nothing else can release the directory once the constructor fails
+            closeAll(e, indexChannel, data, lock, lockChannel);
+            throw e;
+        }
+    }
+
+    private void openIndex(Path indexPath) throws IOException {
+        if (Files.exists(indexPath) && Files.size(indexPath) >= 8) {
+            mapIndex(indexPath);
+            if (index.getInt(0) != MAGIC) {
+                throw new IOException("Not a compilation cache index: " + indexPath);
+            }
+            if (index.getInt(4) == VERSION && index.getInt(8) == outputVersion) {
+                if (index.capacity() != HEADER_BYTES + (long) index.getInt(CAPACITY_OFFSET) * ENTRY_BYTES) {
+                    throw new IOException("Not a compilation cache index: " + indexPath);
+                }
+                capacity = index.getInt(CAPACITY_OFFSET);
+                count = index.getInt(COUNT_OFFSET);
+                return;
+            }
+            // Written by another version of the compiler: start over
+            data.truncate(0);
+        }
+        createIndex(indexPath, INITIAL_CAPACITY);
+        mapIndex(indexPath);
+        capacity = INITIAL_CAPACITY;
+    }
+
+    // Closes the resources that are open, adding their failures to 'failure'
+    private static void closeAll(Exception failure, AutoCloseable... resources) {
+        for (AutoCloseable resource : resources) {
+            if (resource == null) {
+                continue;
+            }
+            try {
+                resource.close();
+            } catch (Exception e) {
+                failure.addSuppressed(e);
+            }
+        }
+    }
+
+    // Opens the cache in 'directory', creating it if needed, for records of compiler
+    // output version 'outputVersion'
+    public static DiskCache open(Path directory, int outputVersion) throws IOException {
+        return new DiskCache(directory, outputVersion);
+    }
+
+    private void createIndex(Path path, int capacity) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            header.putInt(MAGIC).putInt(VERSION).putInt(outputVersion).putInt(capacity).putInt(0).flip();
+            channel.write(header);
+            // Entries start out empty (zero)
+            channel.write(ByteBuffer.allocate(1), HEADER_BYTES + (long) capacity * ENTRY_BYTES - 1);
+        }
+    }
+
+    private void mapIndex(Path path) throws IOException {
+        if (indexChannel != null) {
+            indexChannel.close();
+        }
+        indexChannel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        index = indexChannel.map(FileChannel.MapMode.READ_WRITE, 0, indexChannel.size());
+    }
+
+    // Record stored under 'key', or null
+    synchronized Record get(String key) {
+        try {
+            long hash = hash(key);
+            for (int i = slot(hash); ; i = (i + 1) & (capacity - 1)) {
+                long stored = index.getLong(HEADER_BYTES + i * ENTRY_BYTES);
+                if (stored == 0) {
+                    misses++;
+                    return null;
+                }
+                if (stored == hash) {
+                    Record record = read(index.getLong(HEADER_BYTES + i * ENTRY_BYTES + 8), key);
+                    if (record != null) {
+                        hits++;
+                        return record;
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Appends a record; a key that is already stored keeps its first record
+    synchronized void put(String key, String listing, ByteBuffer tmc) {
+        try {
+            long hash = hash(key);
+            int i = slot(hash);
+            for (long stored; (stored = index.getLong(HEADER_BYTES + i * ENTRY_BYTES)) != 0; i = (i + 1) & (capacity - 1)) {
+                if (stored == hash && read(index.getLong(HEADER_BYTES + i * ENTRY_BYTES + 8), key) != null) {
+                    return;
+                }
+            }
+            byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+            byte[] listingBytes = listing.getBytes(StandardCharsets.UTF_8);
+            ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_BYTES + keyBytes.length + listingBytes.length
+                    + tmc.remaining());
+            record.putInt(keyBytes.length).putInt(listingBytes.length).putInt(tmc.remaining());
+            record.put(keyBytes).put(listingBytes).put(tmc.duplicate()).flip();
+            long offset = data.size();
+            while (record.hasRemaining()) {
+                data.write(record, offset + record.position());
+            }
+            // The data is written before the index points at it
+            index.putLong(HEADER_BYTES + i * ENTRY_BYTES + 8, offset);
+            index.putLong(HEADER_BYTES + i * ENTRY_BYTES, hash);
+            index.putInt(COUNT_OFFSET, ++count);
+            stores++;
+            if (count * 2 > capacity) {
+                grow();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Record at 'offset' if it is complete and stored under 'key'
+    private Record read(long offset, String key) throws IOException {
+        long size = data.size();
+        if (offset < 0 || offset + RECORD_HEADER_BYTES > size) {
+            return null;
+        }
+        ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_BYTES);
+        readFully(header, offset);
+        int keyLength = header.getInt(0);
+        int listingLength = header.getInt(4);
+        int tmcLength = header.getInt(8);
+        if (keyLength < 0 || listingLength < 0 || tmcLength < 0
+                || offset + RECORD_HEADER_BYTES + (long) keyLength + listingLength + tmcLength > size) {
+            return null;
+        }
+        ByteBuffer body = ByteBuffer.allocate(keyLength + listingLength + tmcLength);
+        readFully(body, offset + RECORD_HEADER_BYTES);
+        byte[] bytes = body.array();
+        if (!key.equals(new String(bytes, 0, keyLength, StandardCharsets.UTF_8))) {
+            return null;
+        }
+        String listing = new String(bytes, keyLength, listingLength, StandardCharsets.UTF_8);
+        byte[] tmc = new byte[tmcLength];
+        System.arraycopy(bytes, keyLength + listingLength, tmc, 0, tmcLength);
+        return new Record(listing, tmc);
+    }
+
+    private void readFully(ByteBuffer buffer, long offset) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (data.read(buffer, offset + buffer.position()) < 0) {
+                throw new EOFException("Truncated cache record at " + offset);
+            }
+        }
+    }
+
+    // Rehashes every entry into an index of twice the capacity, then swaps it in
+    private void grow() throws IOException {
+        int newCapacity = capacity * 2;
+        Path next = directory.resolve("index.tmp");
+        createIndex(next, newCapacity);
+        try (FileChannel channel = FileChannel.open(next, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedByteBuffer grown = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+            for (int i = 0; i < capacity; i++) {
+                long hash = index.getLong(HEADER_BYTES + i * ENTRY_BYTES);
+                if (hash == 0) {
+                    continue;
+                }
+                int j = (int) (hash & (newCapacity - 1));
+                while (grown.getLong(HEADER_BYTES + j * ENTRY_BYTES) != 0) {
+                    j = (j + 1) & (newCapacity - 1);
+                }
+                grown.putLong(HEADER_BYTES + j * ENTRY_BYTES, hash);
+                grown.putLong(HEADER_BYTES + j * ENTRY_BYTES + 8, index.getLong(HEADER_BYTES + i * ENTRY_BYTES + 8));
+            }
+            grown.putInt(COUNT_OFFSET, count);
+            grown.force();
+        }
+        Path indexPath = directory.resolve("index");
+        Files.move(next, indexPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        mapIndex(indexPath);
+        capacity = newCapacity;
+    }
+
+    private int slot(long hash) {
+        return (int) (hash & (capacity - 1));
+    }
+
+    // 64-bit FNV-1a of the key's characters; never 0, which marks empty entries
+    static long hash(String key) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < key.length(); i++) {
+            hash ^= key.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash != 0 ? hash : 1;
+    }
+
+    public synchronized long hits() {
+        return hits;
+    }
+
+    public synchronized long misses() {
+        return misses;
+    }
+
+    // Records written by this process
+    public synchronized long stores() {
+        return stores;
+    }
+
+    // Records in the cache
+    public synchronized int size() {
+        return count;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return hits + " hits, " + misses + " misses, " + stores + " stored, " + count + " records in " + directory;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        index.force();
+        indexChannel.close();
+        data.close();
+        lock.release();
+        lockChannel.close();
+    }
+}
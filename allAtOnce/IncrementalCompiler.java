@@ -0,0 +1,199 @@
+package allAtOnce;
+
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.stream.*;
+
+// Recompiles successive versions of a program, redoing only the lines an edit affects.
+// A line's listing, diagnostic and TMC depend on nothing but its text and, through the
+// semantic check, on whether the identifiers it looks up are declared at that point;
+// INTEGER lines in turn declare identifiers. So every line records the lookups its
+// check made and the names it declared, and a line of the new version reuses an old
+// line with the same text whose recorded lookups get the same answers now. Lines are
+// matched by text rather than position, so inserting or deleting lines does not
+// invalidate the lines after them; only the "Line n" headers are renumbered.
+//
+// Sessions with whole-program passes (common subexpressions, dead stores) or slot
+// encoding, where a line's code depends on other lines, are not supported.
+// Not thread-safe.
+public final class IncrementalCompiler {
+    // Outcome of one compile()
+    public static final class Report {
+        public final int lines;
+        public final int reused;
+        public final int recompiled;
+
+        Report(int lines, int reused, int recompiled) {
+            this.lines = lines;
+            this.reused = reused;
+            this.recompiled = recompiled;
+        }
+
+        @Override
+        public String toString() {
+            return lines + " lines: " + reused + " reused, " + recompiled + " recompiled";
+        }
+    }
+
+    // Everything one line produced
+    private static final class Line {
+        final String text;
+        // Identifiers the semantic check looked up, and whether each was declared
+        final Map<String, Boolean> lookups = new HashMap<>();
+        // Identifiers the line declared
+        final List<String> declared = new ArrayList<>();
+        // Listing after the "Line n" header
+        StringBuilder body = new StringBuilder();
+        String error;
+        ByteBuffer tmc;
+
+        Line(String text) {
+            this.text = text;
+        }
+
+        boolean matches(Set<String> declaredIds) {
+            for (Map.Entry<String, Boolean> lookup : lookups.entrySet()) {
+                if (declaredIds.contains(lookup.getKey()) != lookup.getValue()) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    // The declared identifiers as one line sees them, recording what it does with them
+    private static final class RecordingSet extends AbstractSet<String> {
+        private final Set<String> declaredIds;
+        private final Line line;
+
+        RecordingSet(Set<String> declaredIds, Line line) {
+            this.declaredIds = declaredIds;
+            this.line = line;
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            boolean declared = declaredIds.contains(o);
+            line.lookups.put((String) o, declared);
+            return declared;
+        }
+
+        @Override
+        public boolean add(String name) {
+            line.declared.add(name);
+            return declaredIds.add(name);
+        }
+
+        @Override
+        public Iterator<String> iterator() {
+            return Collections.unmodifiableSet(declaredIds).iterator();
+        }
+
+        @Override
+        public int size() {
+            return declaredIds.size();
+        }
+    }
+
+    private final CompilerSession session;
+    private List<Line> lines = Collections.emptyList();
+
+    public IncrementalCompiler(CompilerSession session) {
+        if (session.commonSubexpressions || session.deadStores || session.slotEncoding) {
+            throw new IllegalArgumentException(
+                    "Incremental compilation needs per-line code: no common subexpressions, dead stores or"
+                            + " slots (--legacy-tmc)");
+        }
+        this.session = session;
+    }
+
+    // Compiles the next version of the program
+    public Report compile(List<String> source) {
+        Map<String, Deque<Line>> previous = new HashMap<>();
+        for (Line line : lines) {
+            previous.computeIfAbsent(line.text, text -> new ArrayDeque<>()).add(line);
+        }
+        CompilationUnit worker = session.newUnit();
+        Set<String> declaredIds = new HashSet<>();
+        List<Line> current = new ArrayList<>(source.size());
+        List<Line> generate = new ArrayList<>();
+        List<Ast.Let> lets = new ArrayList<>();
+        int reused = 0;
+        for (int i = 0; i < source.size(); i++) {
+            String text = source.get(i);
+            Line line = take(previous.get(text), declaredIds);
+            if (line != null) {
+                declaredIds.addAll(line.declared);
+                current.add(line);
+                reused++;
+                continue;
+            }
+            line = new Line(text);
+            int errors = worker.diagnostics().size();
+            Ast.Stmt stmt = worker.compileLine(i + 1, text, new RecordingSet(declaredIds, line), line.body);
+            if (worker.diagnostics().size() > errors) {
+                line.error = worker.diagnostics().get(errors).message;
+            }
+            if (stmt instanceof Ast.Let) {
+                generate.add(line);
+                lets.add((Ast.Let) stmt);
+            }
+            current.add(line);
+        }
+
+        // Code generation only reads the statement, as in CompilationUnit.flush
+        IntStream range = IntStream.range(0, generate.size());
+        if (session.parallelBackend && generate.size() >= CompilationUnit.PARALLEL_THRESHOLD) {
+            range = range.parallel();
+        }
+        range.forEach(i -> generate.get(i).tmc = worker.generate(lets.get(i), null, generate.get(i).body));
+        lines = current;
+        return new Report(current.size(), reused, current.size() - reused);
+    }
+
+    // An unused old line that is valid under the current declarations, or null
+    private static Line take(Deque<Line> candidates, Set<String> declaredIds) {
+        if (candidates == null) {
+            return null;
+        }
+        for (Iterator<Line> it = candidates.iterator(); it.hasNext(); ) {
+            Line line = it.next();
+            if (line.matches(declaredIds)) {
+                it.remove();
+                return line;
+            }
+        }
+        return null;
+    }
+
+    // Listing of the latest version
+    public String listing() {
+        StringBuilder out = new StringBuilder();
+        for (int i = 0; i < lines.size(); i++) {
+            CompilationUnit.header(i + 1, lines.get(i).text, out);
+            out.append(lines.get(i).body);
+        }
+        return out.toString();
+    }
+
+    public List<CompilationUnit.Diagnostic> diagnostics() {
+        List<CompilationUnit.Diagnostic> diagnostics = new ArrayList<>();
+        for (int i = 0; i < lines.size(); i++) {
+            if (lines.get(i).error != null) {
+                diagnostics.add(new CompilationUnit.Diagnostic(i + 1, lines.get(i).error));
+            }
+        }
+        return diagnostics;
+    }
+
+    // Binary TMC of the latest version, in source order
+    public ByteBuffer tmc() {
+        TmcEmitter out = new TmcEmitter(1 << 12, false);
+        for (Line line : lines) {
+            if (line.tmc != null) {
+                out.emit(line.tmc);
+            }
+        }
+        return out.code();
+    }
+}
@@ -0,0 +1,94 @@
+package allAtOnce;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+// Encodes three-operand instructions into the four-byte TMC format.
+// Opcodes come from a table indexed by Ir.Op ordinal, operands from a 128-entry
+// table indexed by the identifier's character. Temporaries, multi-letter names and
+// anything else outside the table encode as FALLBACK ('t', 01110100).
+public class InstructionEncoder {
+    static final byte FALLBACK = 0b01110100;
+    static final byte NO_OPCODE = 0;
+    // I/O instructions of runnable programs (see TmcMachine): INPUT dest, WRITE op1
+    static final byte INPUT = 0b01001001;
+    static final byte WRITE = 0b01010111;
+
+    // Shared encoder with the standard tables
+    public static final InstructionEncoder DEFAULT = new InstructionEncoder();
+
+    private static final byte[] OPCODES = new byte[Ir.Op.values().length];
+    static {
+        OPCODES[Ir.Op.ADD.ordinal()] = 0b01000001;
+        OPCODES[Ir.Op.SUB.ordinal()] = 0b01010011;
+        OPCODES[Ir.Op.MUL.ordinal()] = 0b01001101;
+        OPCODES[Ir.Op.DIV.ordinal()] = 0b01000100;
+        OPCODES[Ir.Op.LDA.ordinal()] = NO_OPCODE;
+        OPCODES[Ir.Op.STR.ordinal()] = NO_OPCODE;
+    }
+
+    // Single-letter identifiers encode as their ASCII code
+    private static final byte[] OPERANDS = new byte[128];
+    static {
+        Arrays.fill(OPERANDS, FALLBACK);
+        for (char c = 'A'; c <= 'Z'; c++) {
+            OPERANDS[c] = (byte) c;
+        }
+        for (char c = 'a'; c <= 'z'; c++) {
+            OPERANDS[c] = (byte) c;
+        }
+    }
+
+    protected InstructionEncoder() {
+    }
+
+    public byte opcode(Ir.Op op) {
+        return OPCODES[op.ordinal()];
+    }
+
+    public byte operand(String name) {
+        if (name.length() != 1) {
+            return FALLBACK;
+        }
+        char c = name.charAt(0);
+        return c < 128 ? OPERANDS[c] : FALLBACK;
+    }
+
+    // Operand byte of every symbol, indexed by symbol id; goes through operand(), so
+    // encoders with their own numbering (see SlotAllocator) only override that
+    public byte[] operands(Ir.Symbols symbols) {
+        byte[] operands = new byte[symbols.size()];
+        for (int id = 0; id < operands.length; id++) {
+            operands[id] = operand(symbols.name(id));
+        }
+        return operands;
+    }
+
+    public void encode(Ir.Code code, int i, byte[] operands, ByteBuffer out) {
+        out.put(opcode(code.op(i)));
+        out.put(operands[code.dest(i)]);
+        out.put(operands[code.left(i)]);
+        out.put(operands[code.right(i)]);
+    }
+
+    // INPUT of 'name' into its operand
+    public void encodeInput(String name, ByteBuffer out) {
+        out.put(INPUT).put(operand(name)).put(NO_OPCODE).put(NO_OPCODE);
+    }
+
+    // WRITE of 'name', read from op1
+    public void encodeWrite(String name, ByteBuffer out) {
+        out.put(WRITE).put(NO_OPCODE).put(operand(name)).put(NO_OPCODE);
+    }
+
+    // Whole three-operand listing as a flipped buffer
+    public ByteBuffer encode(Ir.Code code) {
+        ByteBuffer out = ByteBuffer.allocate(code.size() * TmcEmitter.INSTRUCTION_BYTES);
+        byte[] operands = operands(code.symbols);
+        for (int i = 0; i < code.size(); i++) {
+            encode(code, i, operands, out);
+        }
+        out.flip();
+        return out;
+    }
+}
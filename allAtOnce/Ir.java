@@ -0,0 +1,173 @@
+package allAtOnce;
+
+import java.util.*;
+
+// Structured intermediate code shared by ICR generation, assembly, optimization and TMC.
+// Instructions are packed into parallel primitive arrays; operands are symbol indices.
+final class Ir {
+    private Ir() {
+    }
+
+    enum Op {
+        ADD('+'), SUB('-'), MUL('*'), DIV('/'), LDA(' '), STR(' ');
+
+        private static final Op[] VALUES = values();
+
+        // Infix symbol of arithmetic opcodes
+        final char symbol;
+
+        Op(char symbol) {
+            this.symbol = symbol;
+        }
+
+        boolean isArithmetic() {
+            return symbol != ' ';
+        }
+
+        static Op of(int ordinal) {
+            return VALUES[ordinal];
+        }
+
+        // Arithmetic opcode for an infix operator, or null
+        static Op arithmetic(char symbol) {
+            switch (symbol) {
+                case '+':
+                    return ADD;
+                case '-':
+                    return SUB;
+                case '*':
+                    return MUL;
+                case '/':
+                    return DIV;
+                default:
+                    return null;
+            }
+        }
+    }
+
+    // Instruction layouts
+    enum Form {
+        // t1 = a + b        (op, dest, left, right)
+        THREE_ADDRESS,
+        // LDA a / ADD b / STR t1   (op, operand)
+        ACCUMULATOR,
+        // ADD t1, a, b      (op, dest, left, right)
+        THREE_OPERAND
+    }
+
+    // Names of variables and temporaries, indexed by dense int ids
+    static final class Symbols {
+        private final List<String> names = new ArrayList<>();
+        private final Map<String, Integer> ids = new HashMap<>();
+
+        int intern(String name) {
+            Integer id = ids.get(name);
+            if (id == null) {
+                id = names.size();
+                names.add(name);
+                ids.put(name, id);
+            }
+            return id;
+        }
+
+        // Temporary t<n>; cannot clash with identifiers, which are letters only
+        int temp(int n) {
+            return intern("t" + n);
+        }
+
+        String name(int id) {
+            return names.get(id);
+        }
+
+        int size() {
+            return names.size();
+        }
+
+        boolean isTemp(int id) {
+            String name = names.get(id);
+            return name.length() > 1 && name.charAt(0) == 't' && Character.isDigit(name.charAt(1));
+        }
+    }
+
+    static final class Code {
+        final Form form;
+        final Symbols symbols;
+        private int size;
+        private byte[] ops = new byte[8];
+        private int[] dest = new int[8];
+        private int[] left = new int[8];
+        private int[] right = new int[8];
+
+        Code(Form form, Symbols symbols) {
+            this.form = form;
+            this.symbols = symbols;
+        }
+
+        // Three-address or three-operand instruction
+        void add(Op op, int dest, int left, int right) {
+            if (size == ops.length) {
+                int capacity = size * 2;
+                ops = Arrays.copyOf(ops, capacity);
+                this.dest = Arrays.copyOf(this.dest, capacity);
+                this.left = Arrays.copyOf(this.left, capacity);
+                this.right = Arrays.copyOf(this.right, capacity);
+            }
+            ops[size] = (byte) op.ordinal();
+            this.dest[size] = dest;
+            this.left[size] = left;
+            this.right[size] = right;
+            size++;
+        }
+
+        // Accumulator instruction with its single operand
+        void add(Op op, int operand) {
+            add(op, -1, operand, -1);
+        }
+
+        int size() {
+            return size;
+        }
+
+        Op op(int i) {
+            return Op.of(ops[Objects.checkIndex(i, size)]);
+        }
+
+        int dest(int i) {
+            return dest[Objects.checkIndex(i, size)];
+        }
+
+        // Left operand, or the operand of an accumulator instruction
+        int left(int i) {
+            return left[Objects.checkIndex(i, size)];
+        }
+
+        int right(int i) {
+            return right[Objects.checkIndex(i, size)];
+        }
+
+        int operand(int i) {
+            return left(i);
+        }
+
+        // Pretty-printer for the console listings
+        String format(int i) {
+            Op op = op(i);
+            switch (form) {
+                case THREE_ADDRESS:
+                    return symbols.name(dest[i]) + " = " + symbols.name(left[i]) + " " + op.symbol + " " + symbols.name(right[i]);
+                case ACCUMULATOR:
+                    return op + " " + symbols.name(left[i]);
+                default:
+                    return op + " " + symbols.name(dest[i]) + ", " + symbols.name(left[i]) + ", " + symbols.name(right[i]);
+            }
+        }
+
+        List<String> format() {
+            List<String> lines = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                lines.add(format(i));
+            }
+            return lines;
+        }
+    }
+}
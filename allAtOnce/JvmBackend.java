@@ -0,0 +1,375 @@
+package allAtOnce;
+
+import java.io.*;
+import java.lang.invoke.*;
+import java.util.*;
+
+// Compiles an executable program (see TmcMachine) to JVM bytecode, so that HotSpot
+// turns it into native code instead of interpreting one TMC instruction at a time.
+// The class file is written by hand (there is no class-file API to build on) and
+// loaded as a hidden class next to this one.
+//
+// Every register becomes an int local variable. The program's static run(inputs,
+// output, registers) calls one static part method per chunk of instructions; a part
+// loads the registers it uses from the array, computes on locals only and stores the
+// registers it changed back. Parts stay below HotSpot's huge-method limit so the JIT
+// still compiles them. The code is straight-line, so no stack map frames are needed.
+final class JvmBackend {
+    private JvmBackend() {
+    }
+
+    // Implemented by every generated class; calls its static run method
+    interface Entry {
+        void execute(int[] inputs, int[] output, int[] registers);
+    }
+
+    // A compiled program; runs exactly like TmcMachine.run
+    static final class Program {
+        private final Entry entry;
+        private final TmcMachine machine;
+        private final int[] initial;
+        private final int[] written;
+        private final int inputCount;
+        final int parts;
+        final int classBytes;
+
+        Program(Entry entry, TmcMachine machine, int[] written, int inputs, int parts, int classBytes) {
+            this.entry = entry;
+            this.machine = machine;
+            this.written = written;
+            this.inputCount = inputs;
+            this.parts = parts;
+            this.classBytes = classBytes;
+            this.initial = new int[TmcMachine.REGISTERS];
+            for (int register = 0; register < initial.length; register++) {
+                initial[register] = machine.initialValue(register);
+            }
+        }
+
+        // Throws ArithmeticException on a division by zero and IllegalStateException
+        // when there are fewer inputs than INPUT instructions
+        TmcMachine.Result run(int[] inputs) {
+            int[] output = new int[written.length];
+            try {
+                entry.execute(inputs, output, initial.clone());
+            } catch (ArithmeticException e) {
+                throw new ArithmeticException("Division by zero");
+            } catch (ArrayIndexOutOfBoundsException e) {
+                // The output array fits every WRITE, so only INPUT can run past its array
+                throw new IllegalStateException("No input left: the program reads " + inputCount + " values");
+            }
+            return new TmcMachine.Result(output, written, written.length, machine.size());
+        }
+    }
+
+    // HotSpot does not compile methods longer than 8000 bytes of bytecode. A part ends
+    // once its body plus the loads and stores around it (at most FRAME_BYTES per
+    // register) could pass PART_BYTES; one more instruction is at most 13 bytes.
+    static final int PART_BYTES = 7900;
+    private static final int FRAME_BYTES = 9;
+
+    private static final String OBJECT = "java/lang/Object";
+    private static final String ENTRY = "allAtOnce/JvmBackend$Entry";
+    private static final String RUN = "([I[I[I)V";
+    // Locals of every method: inputs, output, registers, then one per register
+    private static final int FIRST_REGISTER = 3;
+
+    // Opcodes
+    private static final int ICONST_0 = 0x03;
+    private static final int BIPUSH = 0x10;
+    private static final int SIPUSH = 0x11;
+    private static final int LDC = 0x12;
+    private static final int LDC_W = 0x13;
+    private static final int ILOAD = 0x15;
+    private static final int ALOAD_0 = 0x2a;
+    private static final int ALOAD_1 = 0x2b;
+    private static final int ALOAD_2 = 0x2c;
+    private static final int ALOAD_3 = 0x2d;
+    private static final int IALOAD = 0x2e;
+    private static final int ISTORE = 0x36;
+    private static final int IASTORE = 0x4f;
+    private static final int IADD = 0x60;
+    private static final int ISUB = 0x64;
+    private static final int IMUL = 0x68;
+    private static final int IDIV = 0x6c;
+    private static final int RETURN = 0xb1;
+    private static final int INVOKESPECIAL = 0xb7;
+    private static final int INVOKESTATIC = 0xb8;
+    private static final int WIDE = 0xc4;
+
+    private static final int ACC_PUBLIC = 0x0001;
+    private static final int ACC_STATIC = 0x0008;
+    private static final int ACC_FINAL = 0x0010;
+    private static final int ACC_SUPER = 0x0020;
+    // Java 17
+    private static final int CLASS_VERSION = 61;
+
+    static Program compile(TmcMachine machine) {
+        ClassWriter writer = new ClassWriter("allAtOnce/CompiledProgram");
+        List<Integer> written = new ArrayList<>();
+        int inputs = 0;
+        int parts = 0;
+        int pc = 0;
+        do {
+            Code part = new Code();
+            // Registers this part reads and writes
+            BitSet used = new BitSet();
+            BitSet changed = new BitSet();
+            for (; pc < machine.size()
+                    && part.size() + FRAME_BYTES * (used.cardinality() + changed.cardinality()) < PART_BYTES; pc++) {
+                int word = machine.instruction(pc);
+                int dest = (word >>> 16) & 0xFF;
+                int left = (word >>> 8) & 0xFF;
+                int right = word & 0xFF;
+                int op = word >>> 24;
+                if (op == TmcMachine.INPUT) {
+                    part.op(ALOAD_0).push(inputs++, writer).op(IALOAD).local(ISTORE, FIRST_REGISTER + dest);
+                    used.set(dest);
+                    changed.set(dest);
+                } else if (op == TmcMachine.WRITE) {
+                    part.op(ALOAD_1).push(written.size(), writer).local(ILOAD, FIRST_REGISTER + left).op(IASTORE);
+                    written.add(left);
+                    used.set(left);
+                } else {
+                    part.local(ILOAD, FIRST_REGISTER + left).local(ILOAD, FIRST_REGISTER + right)
+                            .op(op == TmcMachine.ADD ? IADD : op == TmcMachine.SUB ? ISUB : op == TmcMachine.MUL ? IMUL : IDIV)
+                            .local(ISTORE, FIRST_REGISTER + dest);
+                    used.set(left);
+                    used.set(right);
+                    used.set(dest);
+                    changed.set(dest);
+                }
+            }
+            writer.method(ACC_PUBLIC | ACC_STATIC, "part" + parts++, RUN, frame(used, changed, part, writer),
+                    3, FIRST_REGISTER + used.length());
+        } while (pc < machine.size());
+
+        // static run: every part in order
+        Code run = new Code();
+        for (int part = 0; part < parts; part++) {
+            run.op(ALOAD_0).op(ALOAD_1).op(ALOAD_2)
+                    .op(INVOKESTATIC).u2(writer.methodref(writer.name, "part" + part, RUN));
+        }
+        writer.method(ACC_PUBLIC | ACC_STATIC, "run", RUN, run.op(RETURN), 3, 3);
+
+        // Entry.execute on an instance, and the constructor
+        Code entry = new Code().op(ALOAD_1).op(ALOAD_2).op(ALOAD_3)
+                .op(INVOKESTATIC).u2(writer.methodref(writer.name, "run", RUN)).op(RETURN);
+        writer.method(ACC_PUBLIC, "execute", RUN, entry, 3, 4);
+        Code init = new Code().op(ALOAD_0).op(INVOKESPECIAL).u2(writer.methodref(OBJECT, "<init>", "()V")).op(RETURN);
+        writer.method(ACC_PUBLIC, "<init>", "()V", init, 1, 1);
+
+        byte[] classFile = writer.toByteArray();
+        int[] writes = written.stream().mapToInt(Integer::intValue).toArray();
+        return new Program(load(classFile), machine, writes, inputs, parts, classFile.length);
+    }
+
+    // Wraps a part's body in loads of the registers it uses and stores of those it changes
+    private static Code frame(BitSet used, BitSet changed, Code body, ClassWriter writer) {
+        Code code = new Code();
+        for (int register = used.nextSetBit(0); register >= 0; register = used.nextSetBit(register + 1)) {
+            code.op(ALOAD_2).push(register, writer).op(IALOAD).local(ISTORE, FIRST_REGISTER + register);
+        }
+        code.append(body);
+        for (int register = changed.nextSetBit(0); register >= 0; register = changed.nextSetBit(register + 1)) {
+            code.op(ALOAD_2).push(register, writer).local(ILOAD, FIRST_REGISTER + register).op(IASTORE);
+        }
+        return code.op(RETURN);
+    }
+
+    private static Entry load(byte[] classFile) {
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup().defineHiddenClass(classFile, true);
+            return (Entry) lookup.findConstructor(lookup.lookupClass(), MethodType.methodType(void.class)).invoke();
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IllegalStateException("Cannot load the generated class", e);
+        }
+    }
+
+    // Bytecode of one method
+    private static final class Code {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        Code op(int opcode) {
+            bytes.write(opcode);
+            return this;
+        }
+
+        Code u2(int value) {
+            bytes.write(value >>> 8);
+            bytes.write(value);
+            return this;
+        }
+
+        // iload / istore of local 'index', wide when it does not fit a byte
+        Code local(int opcode, int index) {
+            if (index > 0xFF) {
+                return op(WIDE).op(opcode).u2(index);
+            }
+            return op(opcode).op(index);
+        }
+
+        Code push(int value, ClassWriter writer) {
+            if (value >= -1 && value <= 5) {
+                return op(ICONST_0 + value);
+            }
+            if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+                return op(BIPUSH).op(value & 0xFF);
+            }
+            if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+                return op(SIPUSH).u2(value & 0xFFFF);
+            }
+            int index = writer.integer(value);
+            return index <= 0xFF ? op(LDC).op(index) : op(LDC_W).u2(index);
+        }
+
+        Code append(Code code) {
+            byte[] body = code.bytes.toByteArray();
+            bytes.write(body, 0, body.length);
+            return this;
+        }
+
+        int size() {
+            return bytes.size();
+        }
+
+        void writeTo(DataOutputStream out) throws IOException {
+            out.writeInt(bytes.size());
+            bytes.writeTo(out);
+        }
+    }
+
+    // Constant pool and methods of a public final class implementing Entry
+    private static final class ClassWriter {
+        private static final int UTF8 = 1;
+        private static final int INTEGER = 3;
+        private static final int CLASS = 7;
+        private static final int METHODREF = 10;
+        private static final int NAME_AND_TYPE = 12;
+
+        final String name;
+        private final ByteArrayOutputStream pool = new ByteArrayOutputStream();
+        private final DataOutputStream poolOut = new DataOutputStream(pool);
+        private final Map<String, Integer> entries = new HashMap<>();
+        private int count = 1;
+        private final ByteArrayOutputStream methods = new ByteArrayOutputStream();
+        private final DataOutputStream methodsOut = new DataOutputStream(methods);
+        private int methodCount;
+
+        ClassWriter(String name) {
+            this.name = name;
+        }
+
+        int utf8(String value) {
+            return entry("U" + value, out -> {
+                out.writeByte(UTF8);
+                out.writeUTF(value);
+            });
+        }
+
+        int integer(int value) {
+            return entry("I" + value, out -> {
+                out.writeByte(INTEGER);
+                out.writeInt(value);
+            });
+        }
+
+        int classref(String className) {
+            int utf8 = utf8(className);
+            return entry("C" + className, out -> {
+                out.writeByte(CLASS);
+                out.writeShort(utf8);
+            });
+        }
+
+        int methodref(String owner, String method, String descriptor) {
+            int classref = classref(owner);
+            int methodName = utf8(method);
+            int type = utf8(descriptor);
+            int nameAndType = entry("N" + method + ' ' + descriptor, out -> {
+                out.writeByte(NAME_AND_TYPE);
+                out.writeShort(methodName);
+                out.writeShort(type);
+            });
+            return entry("M" + owner + '.' + method + descriptor, out -> {
+                out.writeByte(METHODREF);
+                out.writeShort(classref);
+                out.writeShort(nameAndType);
+            });
+        }
+
+        private interface Constant {
+            void write(DataOutputStream out) throws IOException;
+        }
+
+        private int entry(String key, Constant constant) {
+            Integer index = entries.get(key);
+            if (index != null) {
+                return index;
+            }
+            if (count == 0xFFFF) {
+                throw new IllegalStateException("Constant pool overflow");
+            }
+            try {
+                constant.write(poolOut);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            entries.put(key, count);
+            return count++;
+        }
+
+        void method(int access, String method, String descriptor, Code code, int maxStack, int maxLocals) {
+            int methodName = utf8(method);
+            int type = utf8(descriptor);
+            int codeName = utf8("Code");
+            try {
+                methodsOut.writeShort(access);
+                methodsOut.writeShort(methodName);
+                methodsOut.writeShort(type);
+                methodsOut.writeShort(1);
+                // Code attribute: stack, locals, code, no exception table, no attributes
+                methodsOut.writeShort(codeName);
+                methodsOut.writeInt(2 + 2 + 4 + code.size() + 2 + 2);
+                methodsOut.writeShort(maxStack);
+                methodsOut.writeShort(maxLocals);
+                code.writeTo(methodsOut);
+                methodsOut.writeShort(0);
+                methodsOut.writeShort(0);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            methodCount++;
+        }
+
+        byte[] toByteArray() {
+            int thisClass = classref(name);
+            int superClass = classref(OBJECT);
+            int entryInterface = classref(ENTRY);
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (DataOutputStream out = new DataOutputStream(bytes)) {
+                out.writeInt(0xCAFEBABE);
+                out.writeShort(0);
+                out.writeShort(CLASS_VERSION);
+                out.writeShort(count);
+                pool.writeTo(out);
+                out.writeShort(ACC_PUBLIC | ACC_FINAL | ACC_SUPER);
+                out.writeShort(thisClass);
+                out.writeShort(superClass);
+                out.writeShort(1);
+                out.writeShort(entryInterface);
+                // No fields
+                out.writeShort(0);
+                out.writeShort(methodCount);
+                methods.writeTo(out);
+                // No class attributes
+                out.writeShort(0);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return bytes.toByteArray();
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package allAtOnce;
+
+import java.util.*;
+
+// Backward liveness over a whole program, to find assignments whose value is never
+// observed. A program's only observable effects are INPUT and WRITE, so a variable is
+// live where a later WRITE, or a later assignment that is itself live, reads it before
+// it is redefined. INPUT statements are always kept: they consume input.
+final class Liveness {
+    private Liveness() {
+    }
+
+    // Positions in program.statements of the assignments that can be dropped.
+    // 'holders' gives, for each position, the extra variables an assignment defines
+    // (common subexpression holders; may be empty). When 'programEnds' is false more
+    // code follows, so every variable is live after the last statement.
+    static BitSet deadStores(Ast.Program program, List<Collection<String>> holders, boolean programEnds) {
+        List<Ast.Stmt> statements = program.statements;
+        BitSet dead = new BitSet(statements.size());
+        // Liveness of the variables seen so far; the others are live only if more code follows
+        Map<String, Boolean> live = new HashMap<>();
+        boolean liveOut = !programEnds;
+        for (int i = statements.size() - 1; i >= 0; i--) {
+            Ast.Stmt stmt = statements.get(i);
+            if (stmt instanceof Ast.Write) {
+                live.put(((Ast.Write) stmt).name, true);
+            } else if (stmt instanceof Ast.Input) {
+                for (String name : ((Ast.Input) stmt).names) {
+                    live.put(name, false);
+                }
+            } else if (stmt instanceof Ast.Let) {
+                Ast.Let let = (Ast.Let) stmt;
+                Collection<String> defined = holders.get(i);
+                boolean used = live.getOrDefault(let.target, liveOut);
+                for (String holder : defined) {
+                    used |= live.getOrDefault(holder, liveOut);
+                }
+                if (!used) {
+                    dead.set(i);
+                    continue;
+                }
+                live.put(let.target, false);
+                for (String holder : defined) {
+                    live.put(holder, false);
+                }
+                reads(let.value, live);
+            }
+        }
+        return dead;
+    }
+
+    private static void reads(Ast.Expr expr, Map<String, Boolean> live) {
+        if (expr instanceof Ast.Ident) {
+            live.put(((Ast.Ident) expr).name, true);
+        } else {
+            Ast.BinaryOp bin = (Ast.BinaryOp) expr;
+            reads(bin.left, live);
+            reads(bin.right, live);
+        }
+    }
+
+    // Declared variables no statement reads or writes, in declaration order
+    static List<String> unused(Ast.Program program) {
+        Set<String> declared = new LinkedHashSet<>();
+        Set<String> used = new HashSet<>();
+        for (Ast.Stmt stmt : program.statements) {
+            if (stmt instanceof Ast.IntegerDecl) {
+                declared.addAll(((Ast.IntegerDecl) stmt).names);
+            } else if (stmt instanceof Ast.Input) {
+                used.addAll(((Ast.Input) stmt).names);
+            } else if (stmt instanceof Ast.Write) {
+                used.add(((Ast.Write) stmt).name);
+            } else if (stmt instanceof Ast.Let) {
+                used.add(((Ast.Let) stmt).target);
+                Map<String, Boolean> names = new HashMap<>();
+                reads(((Ast.Let) stmt).value, names);
+                used.addAll(names.keySet());
+            }
+        }
+        declared.removeAll(used);
+        return new ArrayList<>(declared);
+    }
+}
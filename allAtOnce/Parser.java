@@ -0,0 +1,137 @@
+package allAtOnce;
+
+import java.util.*;
+
+// Pratt parser from a validated token stream to an Ast.
+// Lines are expected to have passed checkSyntaxErrors; anything else is reported
+// with an IllegalArgumentException naming the offending token.
+final class Parser {
+    private final TokenStream tokens;
+    private final int line;
+    private int pos;
+
+    private Parser(TokenStream tokens, int line) {
+        this.tokens = tokens;
+        this.line = line;
+    }
+
+    // Parses a whole BEGIN..END program, failing on the first line with an error
+    static Ast.Program parseProgram(String[] program) {
+        Ast.Program result = new Ast.Program();
+        TokenStream tokens = new TokenStream();
+        for (int lineNum = 1; lineNum <= program.length; lineNum++) {
+            Compiler3.tokenize(program[lineNum - 1], tokens);
+            String error = Compiler3.checkLexicalErrors(tokens);
+            if (error == null) {
+                error = Compiler3.checkSyntaxErrors(tokens);
+            }
+            if (error != null) {
+                throw new IllegalArgumentException("Line " + lineNum + ": " + error);
+            }
+            Ast.Stmt stmt = parseStatement(tokens, lineNum);
+            if (stmt != null) {
+                result.statements.add(stmt);
+            }
+        }
+        return result;
+    }
+
+    // Returns null for BEGIN and END
+    static Ast.Stmt parseStatement(TokenStream tokens, int line) {
+        return new Parser(tokens, line).statement();
+    }
+
+    private Ast.Stmt statement() {
+        if (tokens.is(0, Compiler3.TokenType.KEYWORD, "BEGIN") || tokens.is(0, Compiler3.TokenType.KEYWORD, "END")) {
+            pos = 1;
+            expectEnd();
+            return null;
+        }
+        if (tokens.is(0, Compiler3.TokenType.KEYWORD, "INTEGER")) {
+            pos = 1;
+            return new Ast.IntegerDecl(line, nameList());
+        }
+        if (tokens.is(0, Compiler3.TokenType.KEYWORD, "INPUT")) {
+            pos = 1;
+            return new Ast.Input(line, nameList());
+        }
+        if (tokens.is(0, Compiler3.TokenType.KEYWORD, "WRITE")) {
+            pos = 1;
+            String name = identifier();
+            expectEnd();
+            return new Ast.Write(line, name);
+        }
+        pos = tokens.is(0, Compiler3.TokenType.KEYWORD, "LET") ? 1 : 0;
+        String target = identifier();
+        expect("=");
+        Ast.Expr value = expression(0);
+        expectEnd();
+        return new Ast.Let(line, target, value);
+    }
+
+    // The syntax check accepts an empty list, a trailing separator and any symbol as a
+    // separator, so the parser does too
+    private List<String> nameList() {
+        List<String> names = new ArrayList<>();
+        while (pos < tokens.size()) {
+            names.add(identifier());
+            if (pos < tokens.size()) {
+                if (tokens.type(pos) != Compiler3.TokenType.SYMBOL) {
+                    throw error("','");
+                }
+                pos++;
+            }
+        }
+        return names;
+    }
+
+    // Pratt loop: binds operators whose precedence is above minPrecedence (left-associative)
+    private Ast.Expr expression(int minPrecedence) {
+        Ast.Expr left = operand();
+        while (pos < tokens.size() && tokens.type(pos) == Compiler3.TokenType.OPERATOR) {
+            char op = tokens.charAt(pos);
+            int precedence = Compiler3.precedence(op);
+            if (precedence <= minPrecedence) {
+                break;
+            }
+            pos++;
+            left = new Ast.BinaryOp(op, left, expression(precedence));
+        }
+        return left;
+    }
+
+    private Ast.Expr operand() {
+        if (pos < tokens.size() && tokens.is(pos, Compiler3.TokenType.SYMBOL, "(")) {
+            pos++;
+            Ast.Expr inner = expression(0);
+            expect(")");
+            return inner;
+        }
+        return new Ast.Ident(identifier());
+    }
+
+    private String identifier() {
+        if (pos >= tokens.size() || tokens.type(pos) != Compiler3.TokenType.IDENTIFIER) {
+            throw error("identifier");
+        }
+        return tokens.value(pos++);
+    }
+
+    private void expect(String symbol) {
+        if (pos >= tokens.size() || !tokens.is(pos, Compiler3.TokenType.SYMBOL, symbol)) {
+            throw error("'" + symbol + "'");
+        }
+        pos++;
+    }
+
+    private void expectEnd() {
+        if (pos < tokens.size()) {
+            throw error("end of line");
+        }
+    }
+
+    private IllegalArgumentException error(String expected) {
+        String found = pos < tokens.size() ? "'" + tokens.value(pos) + "'" : "end of line";
+        return new IllegalArgumentException("Parse error: Expected " + expected + " but found " + found);
+    }
+}
@@ -0,0 +1,208 @@
+package allAtOnce;
+
+import java.util.*;
+
+// Peephole optimizer for accumulator assembly (LDA / op / STR).
+// generateAssembly stores every intermediate result and loads it straight back; this
+// pass tracks which memory locations already hold the accumulator's value and
+//   - drops loads of a value the accumulator already holds,
+//   - turns "LDA x / ADD t" into "ADD x" when the accumulator holds t (ADD and MUL only),
+//   - drops operations with the identity constant ("ADD 0", "SUB 0", "MUL 1", "DIV 1",
+//     see Simplifier), which leave the accumulator as it is,
+//   - stores a temporary that is only copied elsewhere ("LDA t / STR X") straight to X,
+//   - drops stores to temporaries that are never read again.
+// Identifiers are program variables, so stores to them are always kept. The result
+// goes on to Compiler3.optimizeAssembly, where every operation takes its destination
+// from a store after it, so a dead store is kept when the accumulator's value is used
+// by the next operation and not stored anywhere else.
+final class Peephole {
+    private Peephole() {
+    }
+
+    // Optimized code and how many instructions each rule removed
+    static final class Result {
+        final Ir.Code code;
+        final int redundantLoads;
+        final int commutedLoads;
+        final int identities;
+        final int forwardedStores;
+        final int deadStores;
+
+        Result(Ir.Code code, int redundantLoads, int commutedLoads, int identities, int forwardedStores,
+               int deadStores) {
+            this.code = code;
+            this.redundantLoads = redundantLoads;
+            this.commutedLoads = commutedLoads;
+            this.identities = identities;
+            this.forwardedStores = forwardedStores;
+            this.deadStores = deadStores;
+        }
+
+        int removed() {
+            return redundantLoads + commutedLoads + identities + 2 * forwardedStores + deadStores;
+        }
+
+        @Override
+        public String toString() {
+            return removed() + " instructions removed (" + redundantLoads + " redundant loads, " + commutedLoads
+                    + " commuted loads, " + identities + " identities, " + forwardedStores + " forwarded stores, " + deadStores + " dead stores)";
+        }
+    }
+
+    static Result optimize(Ir.Code assembly) {
+        if (assembly.form != Ir.Form.ACCUMULATOR) {
+            throw new IllegalArgumentException("Peephole optimization needs accumulator code");
+        }
+        Ir.Symbols symbols = assembly.symbols;
+        int size = assembly.size();
+        Ir.Op[] ops = new Ir.Op[size];
+        int[] operands = new int[size];
+        int n = 0;
+
+        // Forward pass: loads of values already in the accumulator
+        boolean[] inAccumulator = new boolean[symbols.size()];
+        int[] held = new int[symbols.size()];
+        int heldCount = 0;
+        int redundantLoads = 0;
+        int commutedLoads = 0;
+        int identities = 0;
+        for (int i = 0; i < size; i++) {
+            Ir.Op op = assembly.op(i);
+            int operand = assembly.operand(i);
+            if (identity(op, symbols.name(operand))) {
+                identities++;
+                continue;
+            }
+            if (op == Ir.Op.LDA) {
+                if (inAccumulator[operand]) {
+                    redundantLoads++;
+                    continue;
+                }
+                if (i + 1 < size && commutative(assembly.op(i + 1)) && inAccumulator[assembly.operand(i + 1)]) {
+                    // acc holds t: "LDA x / ADD t" is "ADD x"
+                    op = assembly.op(++i);
+                    commutedLoads++;
+                }
+            }
+            ops[n] = op;
+            operands[n++] = operand;
+            if (op == Ir.Op.STR) {
+                if (!inAccumulator[operand]) {
+                    inAccumulator[operand] = true;
+                    held[heldCount++] = operand;
+                }
+            } else {
+                // LDA or arithmetic: the accumulator holds a new value
+                while (heldCount > 0) {
+                    inAccumulator[held[--heldCount]] = false;
+                }
+                if (op == Ir.Op.LDA) {
+                    inAccumulator[operand] = true;
+                    held[heldCount++] = operand;
+                }
+            }
+        }
+
+        // Store forwarding: "STR t ... LDA t / STR X" becomes "STR X ..." when that copy is
+        // the last read of t, nothing in between touches X and the accumulator is not used
+        // after the copy
+        int forwardedStores = 0;
+        boolean[] removed = new boolean[n];
+        for (int i = 0; i < n; i++) {
+            if (removed[i] || ops[i] != Ir.Op.STR || !symbols.isTemp(operands[i])) {
+                continue;
+            }
+            int t = operands[i];
+            int j = i + 1;
+            while (j < n && (removed[j] || operands[j] != t)) {
+                j++;
+            }
+            if (j + 1 >= n || ops[j] != Ir.Op.LDA || ops[j + 1] != Ir.Op.STR || removed[j + 1]
+                    || (j + 2 < n && ops[j + 2] != Ir.Op.LDA) || readAfter(ops, operands, removed, j + 2, n, t)) {
+                continue;
+            }
+            int x = operands[j + 1];
+            boolean touched = false;
+            for (int k = i + 1; k < j && !touched; k++) {
+                touched = !removed[k] && operands[k] == x;
+            }
+            if (touched) {
+                continue;
+            }
+            operands[i] = x;
+            removed[j] = true;
+            removed[j + 1] = true;
+            forwardedStores++;
+        }
+
+        // Backward pass: stores to temporaries that are not read before being overwritten,
+        // a run of consecutive stores (of the same value) at a time
+        int deadStores = 0;
+        boolean[] live = new boolean[symbols.size()];
+        // Whether the next operation reads the accumulator
+        boolean accumulatorRead = false;
+        for (int i = n - 1; i >= 0; i--) {
+            if (removed[i]) {
+                continue;
+            }
+            if (ops[i] != Ir.Op.STR) {
+                live[operands[i]] = true;
+                accumulatorRead = ops[i] != Ir.Op.LDA;
+                continue;
+            }
+            int first = i;
+            while (first > 0 && (removed[first - 1] || ops[first - 1] == Ir.Op.STR)) {
+                first--;
+            }
+            boolean stored = false;
+            int lastDead = -1;
+            for (int k = i; k >= first; k--) {
+                if (removed[k]) {
+                    continue;
+                }
+                int operand = operands[k];
+                if (symbols.isTemp(operand) && !live[operand]) {
+                    removed[k] = true;
+                    deadStores++;
+                    lastDead = Math.max(lastDead, k);
+                } else {
+                    stored = true;
+                }
+                live[operand] = false;
+            }
+            if (!stored && accumulatorRead) {
+                // The next operation needs the value somewhere
+                removed[lastDead] = false;
+                deadStores--;
+            }
+            i = first;
+        }
+
+        Ir.Code optimized = new Ir.Code(Ir.Form.ACCUMULATOR, symbols);
+        for (int i = 0; i < n; i++) {
+            if (!removed[i]) {
+                optimized.add(ops[i], operands[i]);
+            }
+        }
+        return new Result(optimized, redundantLoads, commutedLoads, identities, forwardedStores, deadStores);
+    }
+
+    private static boolean identity(Ir.Op op, String operand) {
+        return (op == Ir.Op.ADD || op == Ir.Op.SUB) && operand.equals(Simplifier.ZERO)
+                || (op == Ir.Op.MUL || op == Ir.Op.DIV) && operand.equals(Simplifier.ONE);
+    }
+
+    private static boolean commutative(Ir.Op op) {
+        return op == Ir.Op.ADD || op == Ir.Op.MUL;
+    }
+
+    // Whether 't' is read from 'from' on before it is stored again
+    private static boolean readAfter(Ir.Op[] ops, int[] operands, boolean[] removed, int from, int n, int t) {
+        for (int k = from; k < n; k++) {
+            if (!removed[k] && operands[k] == t) {
+                return ops[k] != Ir.Op.STR;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,92 @@
+package allAtOnce;
+
+import java.util.*;
+
+// Reassociates chains of + and * into trees of minimal depth.
+// The parser builds A + B + C + D as ((A + B) + C) + D, one long dependency chain.
+// Each maximal chain of the same associative operator is flattened into its operands,
+// which are combined two at a time, shallowest first, as in Huffman coding; that gives
+// the smallest possible depth. Within every combination the operand needing more
+// temporaries (its Sethi-Ullman number) is evaluated first, which keeps the number of
+// temporaries live at once as low as the shape allows. - and / are never reassociated.
+//
+// Integer + and * are associative even when they overflow, but the evaluation order
+// changes, which is why this is behind a switch.
+final class Rebalancer {
+    private Rebalancer() {
+    }
+
+    // An operand waiting to be combined
+    private static final class Operand {
+        final Ast.Expr expr;
+        final int height;
+        // Temporaries needed to evaluate it (Sethi-Ullman number)
+        final int need;
+        final int order;
+
+        Operand(Ast.Expr expr, int height, int need, int order) {
+            this.expr = expr;
+            this.height = height;
+            this.need = need;
+            this.order = order;
+        }
+    }
+
+    static Ast.Expr rebalance(Ast.Expr expr) {
+        return rebalanced(expr).expr;
+    }
+
+    private static Operand rebalanced(Ast.Expr expr) {
+        if (expr instanceof Ast.Ident) {
+            return new Operand(expr, 0, 0, 0);
+        }
+        Ast.BinaryOp bin = (Ast.BinaryOp) expr;
+        if (bin.op != '+' && bin.op != '*') {
+            Operand left = rebalanced(bin.left);
+            Operand right = rebalanced(bin.right);
+            Ast.Expr result = left.expr == bin.left && right.expr == bin.right ? bin
+                    : new Ast.BinaryOp(bin.op, left.expr, right.expr);
+            return new Operand(result, Math.max(left.height, right.height) + 1, need(left.need, right.need), 0);
+        }
+
+        PriorityQueue<Operand> queue = new PriorityQueue<>((a, b) -> a.height != b.height
+                ? Integer.compare(a.height, b.height) : Integer.compare(a.order, b.order));
+        int order = 0;
+        for (Ast.Expr operand : chain(bin)) {
+            Operand o = rebalanced(operand);
+            queue.add(new Operand(o.expr, o.height, o.need, order++));
+        }
+        while (queue.size() > 1) {
+            Operand a = queue.poll();
+            Operand b = queue.poll();
+            // The operand needing more temporaries goes first
+            Operand first = b.need > a.need ? b : a;
+            Operand second = first == a ? b : a;
+            queue.add(new Operand(new Ast.BinaryOp(bin.op, first.expr, second.expr),
+                    Math.max(a.height, b.height) + 1, need(first.need, second.need), order++));
+        }
+        return queue.poll();
+    }
+
+    // Operands of the chain of 'root.op' under 'root', left to right
+    private static List<Ast.Expr> chain(Ast.BinaryOp root) {
+        List<Ast.Expr> operands = new ArrayList<>();
+        Deque<Ast.Expr> pending = new ArrayDeque<>();
+        pending.push(root);
+        while (!pending.isEmpty()) {
+            Ast.Expr expr = pending.pop();
+            if (expr instanceof Ast.BinaryOp && ((Ast.BinaryOp) expr).op == root.op) {
+                pending.push(((Ast.BinaryOp) expr).right);
+                pending.push(((Ast.BinaryOp) expr).left);
+            } else {
+                operands.add(expr);
+            }
+        }
+        return operands;
+    }
+
+    // The first operand is evaluated at the node's stack position, the second one above it
+    private static int need(int first, int second) {
+        return Math.max(1, Math.max(first, second + 1));
+    }
+}
@@ -0,0 +1,168 @@
+package allAtOnce;
+
+import java.util.*;
+
+// Linear-scan register allocation over the three-operand form.
+// Every definition of a temporary is a value living from that definition to its last
+// use. Walking the instructions in order, a value gets the lowest free register; when
+// all are taken, whichever of it and the active values ends last is spilled and stays
+// in its memory temp. Operands are read before the destination is written, so a register
+// whose temporary dies at an instruction can hold that instruction's result.
+final class RegisterAllocator {
+    private RegisterAllocator() {
+    }
+
+    // Allocated code and what it cost
+    static final class Result {
+        final Ir.Code code;
+        final int temporaries;
+        final int spilled;
+        final int registersUsed;
+        // Temporary operand references before and after allocation
+        final int memoryOperandsBefore;
+        final int memoryOperands;
+
+        Result(Ir.Code code, int temporaries, int spilled, int registersUsed, int memoryOperandsBefore,
+               int memoryOperands) {
+            this.code = code;
+            this.temporaries = temporaries;
+            this.spilled = spilled;
+            this.registersUsed = registersUsed;
+            this.memoryOperandsBefore = memoryOperandsBefore;
+            this.memoryOperands = memoryOperands;
+        }
+
+        @Override
+        public String toString() {
+            return registersUsed + " registers, " + spilled + " of " + temporaries + " temporaries spilled, "
+                    + memoryOperands + " of " + memoryOperandsBefore + " temporary accesses left in memory";
+        }
+    }
+
+    // Register r; the digits keep it apart from identifiers and temporaries
+    static String register(int r) {
+        return "R" + r;
+    }
+
+    static Result allocate(Ir.Code code, int registers) {
+        if (code.form != Ir.Form.THREE_OPERAND) {
+            throw new IllegalArgumentException("Register allocation needs three-operand code");
+        }
+        if (registers < 0) {
+            throw new IllegalArgumentException("Negative register count: " + registers);
+        }
+        Ir.Symbols symbols = code.symbols;
+        int size = code.size();
+
+        // A temporary may be redefined once its value is dead, so every definition is a
+        // value of its own, named by its instruction index. end[v] is its last use.
+        int[] current = new int[symbols.size()];
+        Arrays.fill(current, -1);
+        int[] end = new int[size];
+        Arrays.fill(end, -1);
+        int memoryOperandsBefore = 0;
+        for (int i = 0; i < size; i++) {
+            memoryOperandsBefore += use(current, code.left(i), i, end) + use(current, code.right(i), i, end);
+            int dest = code.dest(i);
+            if (symbols.isTemp(dest)) {
+                current[dest] = i;
+                end[i] = i;
+                memoryOperandsBefore++;
+            }
+        }
+
+        // Register of each value, -1 if spilled (or not a temporary)
+        int[] assigned = new int[size];
+        Arrays.fill(assigned, -1);
+        int[] active = new int[registers];
+        int activeCount = 0;
+        boolean[] busy = new boolean[registers];
+        int temporaries = 0;
+        int spilled = 0;
+        int registersUsed = 0;
+        for (int i = 0; i < size; i++) {
+            if (end[i] < 0) {
+                continue;
+            }
+            temporaries++;
+
+            // Expire values whose last use is at or before this definition
+            for (int a = 0; a < activeCount; ) {
+                if (end[active[a]] <= i) {
+                    busy[assigned[active[a]]] = false;
+                    active[a] = active[--activeCount];
+                } else {
+                    a++;
+                }
+            }
+
+            if (activeCount < registers) {
+                int r = 0;
+                while (busy[r]) {
+                    r++;
+                }
+                busy[r] = true;
+                assigned[i] = r;
+                active[activeCount++] = i;
+                registersUsed = Math.max(registersUsed, r + 1);
+                continue;
+            }
+
+            // All registers taken: spill the interval that ends last
+            int victim = -1;
+            for (int a = 0; a < activeCount; a++) {
+                if (victim < 0 || end[active[a]] > end[active[victim]]) {
+                    victim = a;
+                }
+            }
+            spilled++;
+            if (victim >= 0 && end[active[victim]] > end[i]) {
+                assigned[i] = assigned[active[victim]];
+                assigned[active[victim]] = -1;
+                active[victim] = i;
+            }
+        }
+
+        // Rewrite operands: registers for allocated values, memory temps for the rest
+        Arrays.fill(current, -1);
+        int[] register = new int[registersUsed];
+        for (int r = 0; r < register.length; r++) {
+            register[r] = symbols.intern(register(r));
+        }
+        Ir.Code allocated = new Ir.Code(Ir.Form.THREE_OPERAND, symbols);
+        int memoryOperands = 0;
+        for (int i = 0; i < size; i++) {
+            int left = code.left(i);
+            int right = code.right(i);
+            int leftValue = current[left];
+            int rightValue = current[right];
+            int dest = code.dest(i);
+            if (end[i] >= 0) {
+                current[dest] = i;
+            }
+            int destValue = end[i] >= 0 ? i : -1;
+            memoryOperands += spilled(assigned, leftValue) + spilled(assigned, rightValue) + spilled(assigned, destValue);
+            allocated.add(code.op(i), operand(assigned, register, destValue, dest),
+                    operand(assigned, register, leftValue, left), operand(assigned, register, rightValue, right));
+        }
+        return new Result(allocated, temporaries, spilled, registersUsed, memoryOperandsBefore, memoryOperands);
+    }
+
+    // Records a use of a temporary's current value
+    private static int use(int[] current, int id, int i, int[] end) {
+        if (current[id] < 0) {
+            return 0;
+        }
+        end[current[id]] = i;
+        return 1;
+    }
+
+    // Register holding 'value', or the symbol itself when it is in memory
+    private static int operand(int[] assigned, int[] register, int value, int symbol) {
+        return value >= 0 && assigned[value] >= 0 ? register[assigned[value]] : symbol;
+    }
+
+    private static int spilled(int[] assigned, int value) {
+        return value >= 0 && assigned[value] < 0 ? 1 : 0;
+    }
+}
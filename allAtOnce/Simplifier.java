@@ -0,0 +1,292 @@
+package allAtOnce;
+
+import java.util.*;
+
+// Algebraic simplification of three-address ICR, between generateICR and
+// generateAssembly. Instructions whose result is one of their operands or a constant
+// are removed and their uses rewritten (copy propagation); results nothing reads
+// any more are then dropped. Constants are the symbols "0" and "1", memory cells the
+// target machine holds those values in.
+//
+// The last instruction's result is stored to the assignment's target, so it is always
+// kept; if it simplifies away it becomes the copy "target = x + 0".
+final class Simplifier {
+    private Simplifier() {
+    }
+
+    static final String ZERO = "0";
+    static final String ONE = "1";
+
+    enum Rule {
+        // x - x = 0
+        SELF_SUBTRACT,
+        // x / x = 1; wrong (no division by zero) when x is 0
+        SELF_DIVIDE,
+        // x + 0 = 0 + x = x
+        ADD_ZERO,
+        // x - 0 = x
+        SUB_ZERO,
+        // x * 1 = 1 * x = x
+        MUL_ONE,
+        // x / 1 = x
+        DIV_ONE,
+        // x * 0 = 0 * x = 0
+        MUL_ZERO,
+        // 0 / x = 0; wrong (no division by zero) when x is 0
+        ZERO_DIVIDE,
+        // x op y computed again while an earlier result still holds it
+        REPEATED;
+
+        // Rule from a command-line name such as "self-divide"
+        static Rule of(String name) {
+            return valueOf(name.trim().toUpperCase(Locale.ROOT).replace('-', '_'));
+        }
+    }
+
+    // Simplified code and how often each rule applied
+    static final class Result {
+        final Ir.Code code;
+        final Map<Rule, Integer> applied;
+        final int removed;
+
+        Result(Ir.Code code, Map<Rule, Integer> applied, int removed) {
+            this.code = code;
+            this.applied = applied;
+            this.removed = removed;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder text = new StringBuilder().append(removed).append(" instructions removed");
+            String separator = " (";
+            for (Map.Entry<Rule, Integer> entry : applied.entrySet()) {
+                text.append(separator).append(entry.getKey().name().toLowerCase(Locale.ROOT).replace('_', '-'))
+                        .append(' ').append(entry.getValue());
+                separator = ", ";
+            }
+            return applied.isEmpty() ? text.toString() : text.append(')').toString();
+        }
+    }
+
+    static Result simplify(Ir.Code icr, Set<Rule> rules) {
+        if (icr.form != Ir.Form.THREE_ADDRESS) {
+            throw new IllegalArgumentException("Simplification needs three-address code");
+        }
+        return new Pass(icr, rules).run();
+    }
+
+    // An operation on particular values of its operands
+    private static final class Key {
+        final Ir.Op op;
+        final int left;
+        final int leftVersion;
+        final int right;
+        final int rightVersion;
+
+        Key(Ir.Op op, int left, int leftVersion, int right, int rightVersion) {
+            this.op = op;
+            this.left = left;
+            this.leftVersion = leftVersion;
+            this.right = right;
+            this.rightVersion = rightVersion;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key k = (Key) o;
+            return op == k.op && left == k.left && leftVersion == k.leftVersion && right == k.right
+                    && rightVersion == k.rightVersion;
+        }
+
+        @Override
+        public int hashCode() {
+            return ((op.ordinal() * 31 + left) * 31 + leftVersion) * 961 + right * 31 + rightVersion;
+        }
+    }
+
+    private static final class Pass {
+        final Ir.Code icr;
+        final Ir.Symbols symbols;
+        final Set<Rule> rules;
+        final Map<Rule, Integer> applied = new EnumMap<>(Rule.class);
+        // Symbol holding each operation computed so far, and that symbol's version then
+        final Map<Key, int[]> computed = new HashMap<>();
+        int[] versions;
+        int zero = -1;
+        int one = -1;
+
+        Pass(Ir.Code icr, Set<Rule> rules) {
+            this.icr = icr;
+            this.symbols = icr.symbols;
+            this.rules = rules;
+        }
+
+        Result run() {
+            int size = icr.size();
+            Ir.Code folded = new Ir.Code(Ir.Form.THREE_ADDRESS, symbols);
+            // Symbol each symbol's uses read instead (itself unless it was a copy), and
+            // how many symbols currently read a given one
+            int[] replacement = new int[symbols.size() + 2];
+            int[] aliases = new int[replacement.length];
+            versions = new int[replacement.length];
+            for (int id = 0; id < replacement.length; id++) {
+                replacement[id] = id;
+            }
+            for (int i = 0; i < size; i++) {
+                int dest = icr.dest(i);
+                int left = replacement[icr.left(i)];
+                int right = replacement[icr.right(i)];
+                Key key = key(icr.op(i), left, right);
+                int value = simplify(icr.op(i), left, right);
+                if (value < 0) {
+                    value = repeated(key);
+                }
+
+                // A symbol whose old value others still read is about to change: give
+                // those readers a real copy first (does not happen for generateICR output)
+                if (aliases[dest] > 0) {
+                    for (int id = 0; id < replacement.length; id++) {
+                        if (id != dest && replacement[id] == dest) {
+                            folded.add(Ir.Op.ADD, id, dest, zero());
+                            replacement[id] = id;
+                        }
+                    }
+                    aliases[dest] = 0;
+                }
+                if (replacement[dest] != dest) {
+                    aliases[replacement[dest]]--;
+                    replacement[dest] = dest;
+                }
+                versions[dest]++;
+
+                if (value < 0) {
+                    folded.add(icr.op(i), dest, left, right);
+                    computed.put(key, new int[] {dest, versions[dest]});
+                } else if (i == size - 1 || (!symbols.isTemp(dest) && value != dest)) {
+                    // Only temporaries can become copies: anything else (a common
+                    // subexpression holder) is read by later statements
+                    folded.add(Ir.Op.ADD, dest, value, zero());
+                } else if (value != dest) {
+                    replacement[dest] = value;
+                    aliases[value]++;
+                }
+            }
+            Ir.Code simplified = removeDeadCode(folded);
+            return new Result(simplified, applied, size - simplified.size());
+        }
+
+        // Symbol equal to 'left op right', or -1
+        private int simplify(Ir.Op op, int left, int right) {
+            switch (op) {
+                case SUB:
+                    if (left == right && apply(Rule.SELF_SUBTRACT)) {
+                        return zero();
+                    }
+                    if (right == zero && apply(Rule.SUB_ZERO)) {
+                        return left;
+                    }
+                    return -1;
+                case DIV:
+                    if (left == right && apply(Rule.SELF_DIVIDE)) {
+                        return one();
+                    }
+                    if (right == one && apply(Rule.DIV_ONE)) {
+                        return left;
+                    }
+                    if (left == zero && apply(Rule.ZERO_DIVIDE)) {
+                        return zero;
+                    }
+                    return -1;
+                case ADD:
+                    if (left == zero && apply(Rule.ADD_ZERO)) {
+                        return right;
+                    }
+                    if (right == zero && apply(Rule.ADD_ZERO)) {
+                        return left;
+                    }
+                    return -1;
+                case MUL:
+                    if ((left == zero || right == zero) && apply(Rule.MUL_ZERO)) {
+                        return zero;
+                    }
+                    if (left == one && apply(Rule.MUL_ONE)) {
+                        return right;
+                    }
+                    if (right == one && apply(Rule.MUL_ONE)) {
+                        return left;
+                    }
+                    return -1;
+                default:
+                    return -1;
+            }
+        }
+
+        private Key key(Ir.Op op, int left, int right) {
+            if ((op == Ir.Op.ADD || op == Ir.Op.MUL) && left > right) {
+                int swap = left;
+                left = right;
+                right = swap;
+            }
+            return new Key(op, left, versions[left], right, versions[right]);
+        }
+
+        // Symbol still holding the result of an earlier identical operation, or -1
+        private int repeated(Key key) {
+            int[] holder = computed.get(key);
+            if (holder == null || versions[holder[0]] != holder[1] || !apply(Rule.REPEATED)) {
+                return -1;
+            }
+            return holder[0];
+        }
+
+        // Counts 'rule' if it is enabled
+        private boolean apply(Rule rule) {
+            if (!rules.contains(rule)) {
+                return false;
+            }
+            applied.merge(rule, 1, Integer::sum);
+            return true;
+        }
+
+        private int zero() {
+            if (zero < 0) {
+                zero = symbols.intern(ZERO);
+            }
+            return zero;
+        }
+
+        private int one() {
+            if (one < 0) {
+                one = symbols.intern(ONE);
+            }
+            return one;
+        }
+
+        // Drops instructions defining temporaries nothing reads; the last is the result
+        private Ir.Code removeDeadCode(Ir.Code code) {
+            int size = code.size();
+            boolean[] keep = new boolean[size];
+            boolean[] live = new boolean[symbols.size()];
+            for (int i = size - 1; i >= 0; i--) {
+                int dest = code.dest(i);
+                if (i < size - 1 && symbols.isTemp(dest) && !live[dest]) {
+                    continue;
+                }
+                keep[i] = true;
+                live[dest] = false;
+                live[code.left(i)] = true;
+                live[code.right(i)] = true;
+            }
+            Ir.Code result = new Ir.Code(Ir.Form.THREE_ADDRESS, symbols);
+            for (int i = 0; i < size; i++) {
+                if (keep[i]) {
+                    result.add(code.op(i), code.dest(i), code.left(i), code.right(i));
+                }
+            }
+            return result;
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package allAtOnce;
+
+import java.util.*;
+
+// Assigns every declared identifier and temporary of a program a dense numeric slot,
+// which becomes its operand byte in the TMC instead of the ASCII / 't' encoding.
+// Slots are handed out in order of first appearance: identifiers when declared,
+// temporaries t1..tN (and registers, when allocated) the first time a statement
+// needs that many. Temporaries only live within a statement, so all statements
+// share the same temporary slots.
+//
+// Slots are allocated by the sequential front end; the back end only reads them.
+public final class SlotAllocator extends InstructionEncoder {
+    // Operands are one byte wide
+    static final int MAX_SLOTS = 256;
+
+    private final List<String> names = new ArrayList<>();
+    private final Map<String, Integer> slots = new HashMap<>();
+    private int temporaries;
+    private int registers;
+
+    // Slot of 'name', allocating one if needed; -1 once all slots are taken
+    public int allocate(String name) {
+        Integer slot = slots.get(name);
+        if (slot != null) {
+            return slot;
+        }
+        if (names.size() == MAX_SLOTS) {
+            return -1;
+        }
+        slots.put(name, names.size());
+        names.add(name);
+        return names.size() - 1;
+    }
+
+    // Makes sure t1..tCount have slots; false if they do not fit
+    public boolean reserveTemporaries(int count) {
+        while (temporaries < count) {
+            if (allocate("t" + (temporaries + 1)) < 0) {
+                return false;
+            }
+            temporaries++;
+        }
+        return true;
+    }
+
+    // Makes sure registers R0..R(count-1) have slots; false if they do not fit
+    public boolean reserveRegisters(int count) {
+        while (registers < count) {
+            if (allocate(RegisterAllocator.register(registers)) < 0) {
+                return false;
+            }
+            registers++;
+        }
+        return true;
+    }
+
+    // Slot of 'name', or -1 if it has none
+    public int slot(String name) {
+        Integer slot = slots.get(name);
+        return slot != null ? slot : -1;
+    }
+
+    public int size() {
+        return names.size();
+    }
+
+    @Override
+    public byte operand(String name) {
+        int slot = slot(name);
+        return slot >= 0 ? (byte) slot : FALLBACK;
+    }
+
+    // One line per slot: "  0  00000000  A"
+    public List<String> table() {
+        List<String> lines = new ArrayList<>(names.size());
+        for (int slot = 0; slot < names.size(); slot++) {
+            lines.add(String.format(Locale.ROOT, "%3d  %s  %s", slot, TmcEmitter.bits((byte) slot), names.get(slot)));
+        }
+        return lines;
+    }
+
+    // Slot table in load order: the name of slot i on line i
+    public List<String> names() {
+        return Collections.unmodifiableList(names);
+    }
+}
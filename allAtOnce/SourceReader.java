@@ -0,0 +1,157 @@
+package allAtOnce;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.util.*;
+
+// Streams the lines of a source file through a memory-mapped window.
+// Only the current window (64 MiB by default) is mapped and each line is decoded
+// when it is reached, so arbitrarily large programs compile in bounded heap.
+// Line breaks are \n, \r\n or \r, as in Files.readAllLines.
+public final class SourceReader implements Iterable<String>, Closeable {
+    static final int DEFAULT_WINDOW = 1 << 26;
+
+    private final FileChannel channel;
+    private final long size;
+    private final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    private int window;
+    private MappedByteBuffer mapped;
+    private long mappedStart;
+    private long position;
+    private CharBuffer chars = CharBuffer.allocate(256);
+    private boolean iterated;
+
+    private SourceReader(FileChannel channel, int window) throws IOException {
+        this.channel = channel;
+        this.size = channel.size();
+        this.window = window;
+    }
+
+    public static SourceReader open(Path path) throws IOException {
+        return open(path, DEFAULT_WINDOW);
+    }
+
+    static SourceReader open(Path path, int window) throws IOException {
+        return new SourceReader(FileChannel.open(path, StandardOpenOption.READ), window);
+    }
+
+    // Next line without its terminator, or null at end of file
+    public String readLine() throws IOException {
+        if (position >= size) {
+            return null;
+        }
+        while (true) {
+            ensureMapped(position);
+            int start = (int) (position - mappedStart);
+            int limit = mapped.limit();
+            for (int i = start; i < limit; i++) {
+                byte b = mapped.get(i);
+                if (b == '\n' || b == '\r') {
+                    String line = decode(start, i);
+                    position = mappedStart + i + 1;
+                    if (b == '\r') {
+                        skipLineFeed();
+                    }
+                    return line;
+                }
+            }
+            if (mappedStart + limit >= size) {
+                // Last line without a terminator
+                String line = decode(start, limit);
+                position = size;
+                return line;
+            }
+            // The line runs past the window: map again from the line start, growing the
+            // window if the line alone is longer than it
+            if (start == 0) {
+                window = (int) Math.min((long) window * 2, Integer.MAX_VALUE);
+            }
+            map(position);
+        }
+    }
+
+    private void skipLineFeed() throws IOException {
+        if (position < size) {
+            ensureMapped(position);
+            if (mapped.get((int) (position - mappedStart)) == '\n') {
+                position++;
+            }
+        }
+    }
+
+    private void ensureMapped(long at) throws IOException {
+        if (mapped == null || at < mappedStart || at >= mappedStart + mapped.limit()) {
+            map(at);
+        }
+    }
+
+    private void map(long at) throws IOException {
+        long length = Math.min(window, size - at);
+        mapped = channel.map(FileChannel.MapMode.READ_ONLY, at, length);
+        mappedStart = at;
+    }
+
+    private String decode(int from, int to) throws CharacterCodingException {
+        ByteBuffer bytes = mapped.duplicate();
+        bytes.limit(to).position(from);
+        int needed = (int) ((to - from) * (double) decoder.maxCharsPerByte()) + 1;
+        if (chars.capacity() < needed) {
+            chars = CharBuffer.allocate(Math.max(needed, chars.capacity() * 2));
+        }
+        chars.clear();
+        decoder.reset();
+        CoderResult result = decoder.decode(bytes, chars, true);
+        if (result.isError()) {
+            result.throwException();
+        }
+        decoder.flush(chars);
+        chars.flip();
+        return chars.toString();
+    }
+
+    // Single pass over the remaining lines
+    @Override
+    public Iterator<String> iterator() {
+        if (iterated) {
+            throw new IllegalStateException("SourceReader can only be iterated once");
+        }
+        iterated = true;
+        return new Iterator<String>() {
+            private String next = advance();
+
+            private String advance() {
+                try {
+                    return readLine();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+
+            @Override
+            public boolean hasNext() {
+                return next != null;
+            }
+
+            @Override
+            public String next() {
+                if (next == null) {
+                    throw new NoSuchElementException();
+                }
+                String line = next;
+                next = advance();
+                return line;
+            }
+        };
+    }
+
+    @Override
+    public void close() throws IOException {
+        mapped = null;
+        channel.close();
+    }
+}
@@ -0,0 +1,138 @@
+package allAtOnce;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.nio.file.*;
+import java.util.*;
+
+// Binary target machine code: every instruction is four bytes, opcode then
+// dest, op1 and op2. Code is packed into a ByteBuffer (heap or direct) which either
+// grows in memory or is flushed to a channel whenever it fills up.
+// The '01000001  01000111  ...' text form is only produced by disassemble().
+public final class TmcEmitter implements Closeable {
+    static final int INSTRUCTION_BYTES = 4;
+
+    // Eight-character bit strings for every byte value
+    private static final String[] BITS = new String[256];
+    static {
+        for (int b = 0; b < 256; b++) {
+            String bits = Integer.toBinaryString(b);
+            BITS[b] = "00000000".substring(bits.length()) + bits;
+        }
+    }
+
+    private final WritableByteChannel channel;
+    private final boolean direct;
+    private ByteBuffer buffer;
+    private long instructions;
+
+    // In-memory emitter
+    public TmcEmitter(int capacity, boolean direct) {
+        this(null, capacity, direct);
+    }
+
+    // Emitter that drains to 'channel' whenever its buffer is full
+    public TmcEmitter(WritableByteChannel channel, int capacity, boolean direct) {
+        this.channel = channel;
+        this.direct = direct;
+        this.buffer = allocate(Math.max(INSTRUCTION_BYTES, capacity - capacity % INSTRUCTION_BYTES));
+    }
+
+    public static TmcEmitter toFile(Path path) throws IOException {
+        return new TmcEmitter(FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING), 1 << 16, true);
+    }
+
+    private ByteBuffer allocate(int capacity) {
+        return direct ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+    }
+
+    public void emit(byte op, byte dest, byte op1, byte op2) {
+        ensureRoom(INSTRUCTION_BYTES);
+        buffer.put(op).put(dest).put(op1).put(op2);
+        instructions++;
+    }
+
+    // Appends already encoded instructions (position to limit of 'code')
+    public void emit(ByteBuffer code) {
+        ByteBuffer source = code.duplicate();
+        while (source.hasRemaining()) {
+            ensureRoom(INSTRUCTION_BYTES);
+            int n = Math.min(source.remaining(), buffer.remaining());
+            ByteBuffer chunk = source.duplicate();
+            chunk.limit(chunk.position() + n);
+            buffer.put(chunk);
+            source.position(source.position() + n);
+        }
+        instructions += code.remaining() / INSTRUCTION_BYTES;
+    }
+
+    private void ensureRoom(int bytes) {
+        if (buffer.remaining() >= bytes) {
+            return;
+        }
+        if (channel != null) {
+            drain();
+        } else {
+            ByteBuffer grown = allocate(buffer.capacity() * 2);
+            buffer.flip();
+            grown.put(buffer);
+            buffer = grown;
+        }
+    }
+
+    private void drain() {
+        buffer.flip();
+        try {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        buffer.clear();
+    }
+
+    public long instructionCount() {
+        return instructions;
+    }
+
+    // Read-only view of the code emitted so far (in-memory emitters only)
+    public ByteBuffer code() {
+        if (channel != null) {
+            throw new IllegalStateException("Code has been written to the channel");
+        }
+        ByteBuffer view = buffer.duplicate();
+        view.flip();
+        return view.asReadOnlyBuffer();
+    }
+
+    public void flush() {
+        if (channel != null) {
+            drain();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        flush();
+        if (channel != null) {
+            channel.close();
+        }
+    }
+
+    // Text view of binary code, one line per instruction, as generateTMC always printed it
+    public static List<String> disassemble(ByteBuffer code) {
+        List<String> lines = new ArrayList<>(code.remaining() / INSTRUCTION_BYTES);
+        for (int i = code.position(); i + INSTRUCTION_BYTES <= code.limit(); i += INSTRUCTION_BYTES) {
+            lines.add(bits(code.get(i)) + "  " + bits(code.get(i + 1)) + "  "
+                    + bits(code.get(i + 2)) + "  " + bits(code.get(i + 3)));
+        }
+        return lines;
+    }
+
+    static String bits(byte b) {
+        return BITS[b & 0xFF];
+    }
+}
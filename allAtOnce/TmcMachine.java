@@ -0,0 +1,170 @@
+package allAtOnce;
+
+import java.nio.ByteBuffer;
+import java.util.*;
+
+// Executes binary TMC. The machine has one register per operand slot (see
+// SlotAllocator), so an instruction's operand bytes index the register file directly;
+// with the ASCII encoding every temporary would share register 't', which is why only
+// slot-encoded code can run. Registers of slots named by an integer literal (the
+// simplifier's "0" and "1") start out holding that value, all others start at zero.
+//
+// Besides the four arithmetic opcodes there are INPUT ('I', reads the next input into
+// dest) and WRITE ('W', outputs op1). The code is decoded once into one int per
+// instruction with a dense opcode, and run() is a single switch over that array that
+// allocates nothing per instruction.
+public final class TmcMachine {
+    // Operands are one byte wide
+    static final int REGISTERS = SlotAllocator.MAX_SLOTS;
+
+    // Decoded opcodes: bits 24-31 of an instruction word
+    static final int ADD = 0;
+    static final int SUB = 1;
+    static final int MUL = 2;
+    static final int DIV = 3;
+    static final int INPUT = 4;
+    static final int WRITE = 5;
+
+    // Outputs of one run: the value and register of every WRITE, in order
+    public static final class Result {
+        private final int[] values;
+        private final int[] registers;
+        public final long instructions;
+
+        Result(int[] values, int[] registers, int count, long instructions) {
+            this.values = Arrays.copyOf(values, count);
+            this.registers = Arrays.copyOf(registers, count);
+            this.instructions = instructions;
+        }
+
+        public int size() {
+            return values.length;
+        }
+
+        public int value(int i) {
+            return values[i];
+        }
+
+        // Register (slot) the i-th WRITE read
+        public int register(int i) {
+            return registers[i];
+        }
+    }
+
+    private final int[] code;
+    private final int[] initial = new int[REGISTERS];
+    private final List<String> names;
+
+    // Loads the code between position and limit of 'tmc'; 'names' is the slot table
+    // the code was encoded with (CompilationUnit.slotNames())
+    public TmcMachine(ByteBuffer tmc, List<String> names) {
+        if (tmc.remaining() % TmcEmitter.INSTRUCTION_BYTES != 0) {
+            throw new IllegalArgumentException("TMC is not a whole number of instructions: " + tmc.remaining() + " bytes");
+        }
+        code = new int[tmc.remaining() / TmcEmitter.INSTRUCTION_BYTES];
+        for (int pc = 0, at = tmc.position(); pc < code.length; pc++, at += TmcEmitter.INSTRUCTION_BYTES) {
+            code[pc] = opcode(tmc.get(at), pc) << 24 | (tmc.get(at + 1) & 0xFF) << 16
+                    | (tmc.get(at + 2) & 0xFF) << 8 | (tmc.get(at + 3) & 0xFF);
+        }
+        this.names = new ArrayList<>(names);
+        for (int slot = 0; slot < names.size() && slot < REGISTERS; slot++) {
+            initial[slot] = constant(names.get(slot));
+        }
+    }
+
+    private static int opcode(byte opcode, int pc) {
+        if (opcode == InstructionEncoder.DEFAULT.opcode(Ir.Op.ADD)) {
+            return ADD;
+        } else if (opcode == InstructionEncoder.DEFAULT.opcode(Ir.Op.SUB)) {
+            return SUB;
+        } else if (opcode == InstructionEncoder.DEFAULT.opcode(Ir.Op.MUL)) {
+            return MUL;
+        } else if (opcode == InstructionEncoder.DEFAULT.opcode(Ir.Op.DIV)) {
+            return DIV;
+        } else if (opcode == InstructionEncoder.INPUT) {
+            return INPUT;
+        } else if (opcode == InstructionEncoder.WRITE) {
+            return WRITE;
+        }
+        throw new IllegalArgumentException("Unknown opcode " + TmcEmitter.bits(opcode) + " at instruction " + pc);
+    }
+
+    // Initial value of a slot: integer literals hold themselves
+    private static int constant(String name) {
+        for (int i = 0; i < name.length(); i++) {
+            if (!Character.isDigit(name.charAt(i))) {
+                return 0;
+            }
+        }
+        return name.isEmpty() ? 0 : Integer.parseInt(name);
+    }
+
+    public int size() {
+        return code.length;
+    }
+
+    // Decoded instruction: opcode << 24 | dest << 16 | op1 << 8 | op2
+    int instruction(int pc) {
+        return code[pc];
+    }
+
+    // Value a register holds before the program starts
+    int initialValue(int register) {
+        return initial[register];
+    }
+
+    // Name of a register's slot, or its number if the slot table does not name it
+    public String name(int register) {
+        return register < names.size() ? names.get(register) : String.valueOf(register);
+    }
+
+    // Runs the program once on fresh registers. Throws ArithmeticException on a
+    // division by zero and IllegalStateException when INPUT finds no more input.
+    public Result run(int[] inputs) {
+        int[] r = initial.clone();
+        int[] values = new int[16];
+        int[] written = new int[16];
+        int count = 0;
+        int in = 0;
+        int[] code = this.code;
+        for (int pc = 0; pc < code.length; pc++) {
+            int word = code[pc];
+            int dest = (word >>> 16) & 0xFF;
+            int left = (word >>> 8) & 0xFF;
+            int right = word & 0xFF;
+            switch (word >>> 24) {
+                case ADD:
+                    r[dest] = r[left] + r[right];
+                    break;
+                case SUB:
+                    r[dest] = r[left] - r[right];
+                    break;
+                case MUL:
+                    r[dest] = r[left] * r[right];
+                    break;
+                case DIV:
+                    if (r[right] == 0) {
+                        throw new ArithmeticException("Division by zero at instruction " + pc);
+                    }
+                    r[dest] = r[left] / r[right];
+                    break;
+                case INPUT:
+                    if (in == inputs.length) {
+                        throw new IllegalStateException("No input left for instruction " + pc);
+                    }
+                    r[dest] = inputs[in++];
+                    break;
+                default:
+                    // WRITE; opcodes were checked when the code was loaded
+                    if (count == values.length) {
+                        values = Arrays.copyOf(values, count * 2);
+                        written = Arrays.copyOf(written, count * 2);
+                    }
+                    values[count] = r[left];
+                    written[count++] = left;
+                    break;
+            }
+        }
+        return new Result(values, written, count, code.length);
+    }
+}
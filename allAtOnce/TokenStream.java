@@ -0,0 +1,179 @@
+package allAtOnce;
+
+import java.util.*;
+
+// Packed token stream: parallel kind/start/length arrays pointing into the source line.
+// Strings are only materialized on demand; identifiers are interned so a name that was
+// seen before costs no allocation, and keywords/operators/symbols map to constants.
+final class TokenStream {
+    private static final Compiler3.TokenType[] TYPES = Compiler3.TokenType.values();
+
+    // Interned single-character strings for operators and symbols
+    private static final String[] ASCII = new String[128];
+    static {
+        for (char c = 0; c < 128; c++) {
+            ASCII[c] = String.valueOf(c).intern();
+        }
+    }
+
+    // Name cache is dropped once it grows past this many entries
+    private static final int MAX_NAMES = 1 << 16;
+
+    private CharSequence source = "";
+    private int size;
+    private byte[] kinds = new byte[16];
+    private int[] starts = new int[16];
+    private int[] lengths = new int[16];
+
+    private String[] names = new String[64];
+    private int nameCount;
+
+    // Builds a stream over the values of an existing token list
+    static TokenStream of(List<Compiler3.Token> tokens) {
+        TokenStream stream = new TokenStream();
+        StringBuilder text = new StringBuilder();
+        for (Compiler3.Token token : tokens) {
+            stream.add(token.type, text.length(), token.value.length());
+            text.append(token.value);
+        }
+        stream.source = text;
+        return stream;
+    }
+
+    // Starts a new line, keeping the arrays and the name cache
+    void reset(CharSequence source) {
+        this.source = source;
+        this.size = 0;
+    }
+
+    void add(Compiler3.TokenType type, int start, int length) {
+        if (size == kinds.length) {
+            int capacity = size * 2;
+            kinds = Arrays.copyOf(kinds, capacity);
+            starts = Arrays.copyOf(starts, capacity);
+            lengths = Arrays.copyOf(lengths, capacity);
+        }
+        kinds[size] = (byte) type.ordinal();
+        starts[size] = start;
+        lengths[size] = length;
+        size++;
+    }
+
+    CharSequence source() {
+        return source;
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    Compiler3.TokenType type(int i) {
+        return TYPES[kinds[Objects.checkIndex(i, size)]];
+    }
+
+    int start(int i) {
+        return starts[Objects.checkIndex(i, size)];
+    }
+
+    int length(int i) {
+        return lengths[Objects.checkIndex(i, size)];
+    }
+
+    // First character of the token (operators and symbols are a single character)
+    char charAt(int i) {
+        return source.charAt(start(i));
+    }
+
+    boolean valueEquals(int i, String s) {
+        return length(i) == s.length() && DfaScanner.regionEquals(source, starts[i], s);
+    }
+
+    boolean is(int i, Compiler3.TokenType type, String s) {
+        return type(i) == type && valueEquals(i, s);
+    }
+
+    String value(int i) {
+        int start = start(i);
+        int length = lengths[i];
+        switch (TYPES[kinds[i]]) {
+            case KEYWORD: {
+                String kw = DfaScanner.keyword(source, start, start + length);
+                if (kw != null) {
+                    return kw;
+                }
+                break;
+            }
+            case IDENTIFIER:
+                return name(start, length);
+            case OPERATOR:
+            case SYMBOL:
+                if (length == 1 && source.charAt(start) < 128) {
+                    return ASCII[source.charAt(start)];
+                }
+                break;
+            default:
+                break;
+        }
+        return source.subSequence(start, start + length).toString();
+    }
+
+    List<Compiler3.Token> toList() {
+        List<Compiler3.Token> tokens = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            tokens.add(new Compiler3.Token(type(i), value(i)));
+        }
+        return tokens;
+    }
+
+    // Open-addressing lookup of an identifier by its region in the source
+    private String name(int start, int length) {
+        int hash = 0;
+        for (int k = 0; k < length; k++) {
+            hash = 31 * hash + source.charAt(start + k);
+        }
+        int mask = names.length - 1;
+        int slot = (hash ^ (hash >>> 16)) & mask;
+        while (names[slot] != null) {
+            String name = names[slot];
+            if (name.length() == length && DfaScanner.regionEquals(source, start, name)) {
+                return name;
+            }
+            slot = (slot + 1) & mask;
+        }
+        String name = source.subSequence(start, start + length).toString();
+        if (nameCount >= MAX_NAMES) {
+            Arrays.fill(names, null);
+            nameCount = 0;
+        } else if ((nameCount + 1) * 2 > names.length) {
+            rehash(names.length * 2);
+        }
+        insert(name);
+        return name;
+    }
+
+    private void rehash(int capacity) {
+        String[] old = names;
+        names = new String[capacity];
+        nameCount = 0;
+        for (String name : old) {
+            if (name != null) {
+                insert(name);
+            }
+        }
+    }
+
+    private void insert(String name) {
+        int hash = name.hashCode();
+        int mask = names.length - 1;
+        int slot = (hash ^ (hash >>> 16)) & mask;
+        while (names[slot] != null) {
+            slot = (slot + 1) & mask;
+        }
+        names[slot] = name;
+        nameCount++;
+    }
+}
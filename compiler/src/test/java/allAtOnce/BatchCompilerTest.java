@@ -0,0 +1,78 @@
+package allAtOnce;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+// Files compiled on the pool against the same files compiled one by one
+class BatchCompilerTest {
+    @TempDir
+    Path dir;
+
+    // Program of 'statements' assignments, with an error on every tenth line
+    private static List<String> program(int statements) {
+        List<String> lines = new ArrayList<>(List.of("BEGIN", "INTEGER A, B, C", "INPUT A, B"));
+        for (int i = 0; i < statements; i++) {
+            lines.add(i % 10 == 9 ? "C = A + D" : "C = (A + B) * C - A / B");
+        }
+        lines.add("WRITE C");
+        lines.add("END");
+        return lines;
+    }
+
+    private Path write(String name, List<String> lines) throws IOException {
+        return Files.write(dir.resolve(name), lines, StandardCharsets.UTF_8);
+    }
+
+    @Test
+    void keepsInputOrderAndReportsUnreadableFiles() throws IOException {
+        // Largest first, so later files tend to finish before earlier ones
+        List<Path> files = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            files.add(write("p" + i + ".txt", program((8 - i) * 200)));
+        }
+        files.add(4, dir.resolve("missing.txt"));
+
+        CompilerSession session = CompilerSession.builder().build();
+        List<BatchCompiler.FileResult> results = new ArrayList<>();
+        BatchCompiler.Summary summary = new BatchCompiler(session, 4).compile(files, results::add);
+
+        assertEquals(files.size(), results.size());
+        long errors = 0;
+        for (int i = 0; i < files.size(); i++) {
+            BatchCompiler.FileResult result = results.get(i);
+            assertEquals(files.get(i), result.path);
+            if (i == 4) {
+                assertNotNull(result.ioError);
+                assertEquals(0, result.lines);
+                continue;
+            }
+            assertNull(result.ioError);
+            CompilationUnit unit = session.newUnit();
+            unit.compile(Files.readAllLines(files.get(i), StandardCharsets.UTF_8));
+            assertEquals(unit.output(), result.listing);
+            assertEquals(unit.diagnostics().size(), result.diagnostics.size());
+            errors += result.diagnostics.size();
+        }
+        assertEquals(files.size(), summary.files);
+        assertEquals(1, summary.unreadable);
+        assertEquals(errors, summary.errors);
+        assertTrue(errors > 0);
+    }
+
+    @Test
+    void collectsDirectoriesInPathOrder() throws IOException {
+        Path sub = Files.createDirectory(dir.resolve("b"));
+        Path second = Files.write(sub.resolve("x.txt"), program(1), StandardCharsets.UTF_8);
+        Path first = write("a.txt", program(1));
+        Path single = write("c.txt", program(1));
+        assertEquals(List.of(single, first, second, single),
+                BatchCompiler.collect(List.of(single.toString(), dir.toString())));
+    }
+}
@@ -0,0 +1,70 @@
+package allAtOnce;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.*;
+
+import org.junit.jupiter.api.Test;
+
+// First error the single-pass syntax and semantic checks report for a line
+class CheckTest {
+    private static String syntax(String line) {
+        return Compiler3.checkSyntaxErrors(Compiler3.tokenize(line, new TokenStream()));
+    }
+
+    private static String semantics(String line, String... declared) {
+        return Compiler3.checkSemanticErrors(Compiler3.tokenize(line, new TokenStream()),
+                new HashSet<>(Arrays.asList(declared)));
+    }
+
+    @Test
+    void acceptsWellFormedLines() {
+        for (String line : new String[] {"BEGIN", "END", "INTEGER A, B", "INPUT A", "WRITE A", "LET A = B",
+                "A = (B + C) * D / (E - F)"}) {
+            assertNull(syntax(line), line);
+        }
+    }
+
+    @Test
+    void reportsEachSyntaxError() {
+        assertEquals("Syntax error: Empty line", syntax("   "));
+        assertEquals("Syntax error: Numbers not allowed ('12')", syntax("A = B + 12"));
+        assertEquals("Syntax error: Invalid character '%'", syntax("A = B % C"));
+        assertEquals("Syntax error: Combined operators '*/'", syntax("LET B = A * / M"));
+        assertEquals("Syntax error: Semicolon not allowed at line end", syntax("WRITE A;"));
+        assertEquals("Syntax error: Expected identifier after INTEGER", syntax("INTEGER A, ,"));
+        assertEquals("Syntax error: Expected ',' or end after identifier", syntax("INPUT A B"));
+        assertEquals("Syntax error: WRITE expects one identifier", syntax("WRITE A, B"));
+        assertEquals("Syntax error: Expected expression after '='", syntax("A ="));
+        assertEquals("Syntax error: Expected identifier in expression", syntax("A = B +"));
+        assertEquals("Syntax error: Expected operator in expression", syntax("A = B C"));
+        assertEquals("Syntax error: Unbalanced parentheses", syntax("A = (B + C"));
+    }
+
+    @Test
+    void keepsTheOriginalPriorityOrder() {
+        // A number anywhere wins over an earlier shape error or invalid character
+        assertEquals("Syntax error: Numbers not allowed ('7')", syntax("WRITE A B % 7"));
+        // Invalid characters before combined operators, those before a trailing ';'
+        assertEquals("Syntax error: Invalid character '$'", syntax("A = B +- C $;"));
+        assertEquals("Syntax error: Combined operators '+-'", syntax("A = B +- C;"));
+        assertEquals("Syntax error: Semicolon not allowed at line end", syntax("A = B C;"));
+    }
+
+    @Test
+    void truncatedLinesAreInvalidStructure() {
+        for (String line : new String[] {"LET", "LET A", "A", "BEGIN END"}) {
+            assertEquals("Syntax error: Invalid line structure", syntax(line), line);
+        }
+    }
+
+    @Test
+    void reportsInvalidSymbolsBeforeUndeclaredIdentifiers() {
+        assertNull(semantics("A = B + C", "A", "B", "C"));
+        assertEquals("Semantic error: Undeclared identifier 'C'", semantics("A = B + C", "A", "B"));
+        assertEquals("Semantic error: Undeclared identifier 'X'", semantics("LET X = B", "B"));
+        assertEquals("Semantic error: Undeclared identifier 'B'", semantics("INPUT A, B", "A"));
+        assertEquals("Semantic error: Undeclared identifier 'W'", semantics("WRITE W"));
+        assertEquals("Semantic error: Invalid symbol '&'", semantics("A = X + Y &", "A"));
+    }
+}
@@ -0,0 +1,109 @@
+package allAtOnce;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.*;
+
+import org.junit.jupiter.api.Test;
+
+// Value numbering over one batch of statements, and programs compiled with --cse
+class CommonSubexpressionsTest {
+    // "target = postfix" of every assignment after rewriting 'program' as one batch,
+    // followed by "holder <- postfix" for every operation stored in a holder
+    private static List<String> rewrite(CommonSubexpressions cse, String... program) {
+        Ast.Program parsed = Parser.parseProgram(program);
+        for (Ast.Stmt stmt : parsed.statements) {
+            cse.number(stmt);
+        }
+        List<String> rewritten = new ArrayList<>();
+        for (Ast.Stmt stmt : parsed.statements) {
+            if (stmt instanceof Ast.Input) {
+                cse.redefine((Ast.Input) stmt);
+            } else if (stmt instanceof Ast.Let) {
+                CommonSubexpressions.Rewrite rewrite = cse.rewrite((Ast.Let) stmt, null);
+                rewritten.add(rewrite.let.target + " = " + String.join(" ", Ast.postfix(rewrite.let.value)));
+                for (Map.Entry<Ast.Expr, String> result : rewrite.results.entrySet()) {
+                    rewritten.add(result.getValue() + " <- " + String.join(" ", Ast.postfix(result.getKey())));
+                }
+            }
+        }
+        cse.endBatch();
+        return rewritten;
+    }
+
+    private static List<String> rewrite(String... program) {
+        return rewrite(new CommonSubexpressions(), program);
+    }
+
+    @Test
+    void sharedOperationGetsAHolder() {
+        CommonSubexpressions cse = new CommonSubexpressions();
+        assertEquals(List.of("X = A B + C *", "c1 <- A B +", "Y = c1 D *"),
+                rewrite(cse, "X = (A + B) * C", "Y = (B + A) * D"));
+        assertEquals(1, cse.saved());
+    }
+
+    @Test
+    void assignmentTargetHoldsItsValue() {
+        CommonSubexpressions cse = new CommonSubexpressions();
+        assertEquals(List.of("X = A B *", "Y = X C -"), rewrite(cse, "X = A * B", "Y = B * A - C"));
+        assertEquals(1, cse.saved());
+    }
+
+    @Test
+    void subtractionAndDivisionKeepOperandOrder() {
+        assertEquals(List.of("X = A B -", "Y = B A - C *", "Z = A B / C +", "W = B A / D +"),
+                rewrite("X = A - B", "Y = (B - A) * C", "Z = A / B + C", "W = B / A + D"));
+    }
+
+    @Test
+    void redefinitionInvalidatesValues() {
+        // INPUT and LET of an operand, and a new value for the target holding the result
+        assertEquals(List.of("X = A B *", "Y = A B * C -"),
+                rewrite("X = A * B", "INPUT A", "Y = A * B - C"));
+        assertEquals(List.of("X = A B *", "B = C D +", "Y = A B * C -"),
+                rewrite("X = A * B", "B = C + D", "Y = A * B - C"));
+        assertEquals(List.of("X = A B *", "X = C D +", "Y = A B * C -"),
+                rewrite("X = A * B", "X = C + D", "Y = A * B - C"));
+    }
+
+    @Test
+    void holdersOutliveTheBatch() {
+        CommonSubexpressions cse = new CommonSubexpressions();
+        rewrite(cse, "X = (A + B) * C", "Y = (A + B) * D");
+        assertEquals(List.of("Z = c1 X -"), rewrite(cse, "Z = (A + B) - X"));
+        assertEquals(2, cse.saved());
+    }
+
+    @Test
+    void compiledProgramsComputeTheSameValues() {
+        String[] program = {
+                "INTEGER A, B, C, D, X, Y, Z",
+                "INPUT A, B, C, D",
+                "X = (A + B) * (C - D)",
+                "Y = (B + A) * (C - D) + A * B",
+                "INPUT A",
+                "Z = (A + B) * (C - D) - B * A",
+                "A = X",
+                "X = A * B + (B + A)",
+                "WRITE X",
+                "WRITE Y",
+                "WRITE Z"
+        };
+        int[] inputs = {3, 4, 9, 2, 5};
+        CompilationUnit plain = CompilerSession.fromArgs(new String[] {"--run"}).newUnit();
+        plain.compile(program);
+        CompilationUnit cse = CompilerSession.fromArgs(new String[] {"--cse", "--run"}).newUnit();
+        cse.compile(program);
+        assertTrue(cse.diagnostics().isEmpty(), () -> cse.diagnostics().toString());
+
+        TmcMachine.Result expected = plain.machine().run(inputs);
+        TmcMachine.Result actual = cse.machine().run(inputs);
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.value(i), actual.value(i));
+        }
+        assertTrue(cse.savedInstructions() > 0);
+        assertTrue(actual.instructions < expected.instructions);
+    }
+}
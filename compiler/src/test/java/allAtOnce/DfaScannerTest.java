@@ -0,0 +1,68 @@
+package allAtOnce;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.*;
+
+import org.junit.jupiter.api.Test;
+
+// The table-driven scanner against the regex tokenizer it replaces
+class DfaScannerTest {
+    // "TYPE value" of every token
+    private static List<String> describe(List<Compiler3.Token> tokens) {
+        List<String> text = new ArrayList<>();
+        for (Compiler3.Token token : tokens) {
+            text.add(token.type + " " + token.value);
+        }
+        return text;
+    }
+
+    private static List<String> describe(TokenStream tokens) {
+        List<String> text = new ArrayList<>();
+        for (int i = 0; i < tokens.size(); i++) {
+            text.add(tokens.type(i) + " " + tokens.value(i));
+        }
+        return text;
+    }
+
+    private static void assertSameTokens(String line) {
+        List<String> expected = describe(Compiler3.tokenize(line));
+        assertEquals(expected, describe(DfaScanner.scan(line)), () -> "'" + line + "'");
+        assertEquals(expected, describe(Compiler3.tokenize(line, new TokenStream())), () -> "'" + line + "'");
+    }
+
+    @Test
+    void matchesTheRegexTokenizer() {
+        String[] lines = {
+                "",
+                "BEGIN",
+                "INTEGER A, B, C, E, M, N, G, H, I, a, c",
+                "LET B = A * / M",
+                "temp = <s %* * h - j / w + d + * $&;",
+                "WRITEE F;",
+                "BEGINX END_ LET1 1LET",
+                "a_b __ x9 9x 12 007",
+                "\tM =\u000B(A+B)\r\n",
+                "café = été + naïve",
+                "x = ١٢ + y²",
+                "#!? ~ `' \"\" [] {} @",
+                "END"
+        };
+        for (String line : lines) {
+            assertSameTokens(line);
+        }
+    }
+
+    @Test
+    void matchesTheRegexTokenizerOnRandomLines() {
+        String alphabet = "ABEGILNRTWaz019_ +-*/=,();%$&<>#\té١";
+        Random random = new Random(42);
+        for (int n = 0; n < 2000; n++) {
+            char[] line = new char[random.nextInt(24)];
+            for (int i = 0; i < line.length; i++) {
+                line[i] = alphabet.charAt(random.nextInt(alphabet.length()));
+            }
+            assertSameTokens(new String(line));
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package allAtOnce;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.*;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class DiskCacheTest {
+    @TempDir
+    Path directory;
+
+    @Test
+    void recordsSurviveReopening() throws IOException {
+        try (DiskCache cache = DiskCache.open(directory, 1)) {
+            cache.put("A = B C +", "listing", ByteBuffer.wrap(new byte[] {1, 2, 3, 4}));
+        }
+        try (DiskCache cache = DiskCache.open(directory, 1)) {
+            DiskCache.Record record = cache.get("A = B C +");
+            assertNotNull(record);
+            assertEquals("listing", record.listing);
+            assertArrayEquals(new byte[] {1, 2, 3, 4}, record.tmc);
+        }
+    }
+
+    @Test
+    void otherOutputVersionEmptiesTheCache() throws IOException {
+        try (DiskCache cache = DiskCache.open(directory, 1)) {
+            cache.put("A = B C +", "listing", ByteBuffer.wrap(new byte[] {1, 2, 3, 4}));
+        }
+        try (DiskCache cache = DiskCache.open(directory, 2)) {
+            assertEquals(0, cache.size());
+            assertNull(cache.get("A = B C +"));
+        }
+        assertEquals(0, Files.size(directory.resolve("data")));
+    }
+
+    @Test
+    void failedOpenReleasesTheDirectory() throws IOException {
+        Files.write(directory.resolve("index"), new byte[64]);
+        assertThrows(IOException.class, () -> DiskCache.open(directory, 1));
+        Files.delete(directory.resolve("index"));
+        // Would fail with OverlappingFileLockException if the first open kept its lock
+        try (DiskCache cache = DiskCache.open(directory, 1)) {
+            assertEquals(0, cache.size());
+        }
+    }
+}
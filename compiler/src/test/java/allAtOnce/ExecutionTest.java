@@ -0,0 +1,82 @@
+package allAtOnce;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+// Programs compiled with various options and run on TmcMachine
+class ExecutionTest {
+    // Outcome of the program compiled with 'flags' and run on 'inputs'
+    private static TmcMachine.Result execute(String[] flags, String[] program, int... inputs) {
+        CompilerSession session = CompilerSession.fromArgs(flags);
+        CompilationUnit unit = session.newUnit();
+        unit.compile(program);
+        assertTrue(unit.diagnostics().isEmpty(), () -> unit.diagnostics().toString());
+        return unit.machine().run(inputs);
+    }
+
+    // Values the program writes, compiled with 'flags' and run on 'inputs'
+    private static int[] run(String[] flags, String[] program, int... inputs) {
+        TmcMachine.Result result = execute(flags, program, inputs);
+        int[] values = new int[result.size()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = result.value(i);
+        }
+        return values;
+    }
+
+    @Test
+    void simplifiedCommonSubexpressionIsStored() {
+        // B / B simplifies to 1, but its holder is read by the next statement
+        String[] program = {
+                "INTEGER B, D, E, X, Y",
+                "INPUT B, D, E",
+                "X = (B / B) * D",
+                "Y = (B / B) + E",
+                "WRITE X",
+                "WRITE Y"
+        };
+        assertArrayEquals(new int[] {5, 7}, run(new String[] {"--cse", "--simplify", "--run"}, program, 3, 5, 6));
+    }
+
+    @Test
+    void copyIsExecuted() {
+        String[] program = {"INTEGER A, B", "INPUT B", "LET A = B", "WRITE A"};
+        assertArrayEquals(new int[] {5}, run(new String[] {"--run"}, program, 5));
+        assertArrayEquals(new int[] {5}, run(new String[] {"--run", "--simplify"}, program, 5));
+    }
+
+    @Test
+    void copyKeepsTheAssignmentItReads() {
+        String[] program = {
+                "INTEGER B, C, E, F",
+                "INPUT F",
+                "LET C = F",
+                "LET B = E",
+                "LET B = C - B",
+                "LET E = B",
+                "WRITE E",
+                "END"
+        };
+        assertArrayEquals(new int[] {9}, run(new String[] {"--run", "--dead-stores"}, program, 9));
+    }
+
+    @Test
+    void peepholeOutputIsExecuted() {
+        String[] program = {
+                "INTEGER A, B, C, D, E",
+                "INPUT B, C, D",
+                "A = (B * C) * (D / D)",
+                "E = (B + C) * (B - D) + A / C",
+                "WRITE A",
+                "WRITE E"
+        };
+        TmcMachine.Result plain = execute(new String[] {"--simplify", "--run"}, program, 3, 4, 5);
+        TmcMachine.Result peephole = execute(new String[] {"--simplify", "--peephole", "--run"}, program, 3, 4, 5);
+        assertArrayEquals(new int[] {12, -11}, run(new String[] {"--peephole", "--run"}, program, 3, 4, 5));
+        assertEquals(12, peephole.value(0));
+        assertEquals(-11, peephole.value(1));
+        // The simplified "A = t1 + 0" is folded into "MUL A, B, C"
+        assertEquals(plain.instructions - 1, peephole.instructions);
+    }
+}
@@ -0,0 +1,118 @@
+package allAtOnce;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.*;
+
+import org.junit.jupiter.api.Test;
+
+// Successive versions compiled incrementally against each version compiled afresh
+class IncrementalCompilerTest {
+    private static final CompilerSession SESSION = CompilerSession.fromArgs(new String[] {"--legacy-tmc"});
+
+    private static final List<String> PROGRAM = List.of(
+            "BEGIN",
+            "INTEGER A, B, C",
+            "INPUT A, B",
+            "C = A * B + A",
+            "WRITE C",
+            "END");
+
+    private static void assertSameAsFullBuild(IncrementalCompiler compiler, List<String> source) {
+        CompilationUnit unit = SESSION.newUnit();
+        TmcEmitter tmc = new TmcEmitter(64, false);
+        unit.binaryOutput(tmc);
+        unit.compile(source);
+        assertEquals(unit.output(), compiler.listing());
+        assertEquals(describe(unit.diagnostics()), describe(compiler.diagnostics()));
+        assertEquals(tmc.code(), compiler.tmc());
+    }
+
+    private static List<String> describe(List<CompilationUnit.Diagnostic> diagnostics) {
+        List<String> text = new ArrayList<>();
+        for (CompilationUnit.Diagnostic diagnostic : diagnostics) {
+            text.add(diagnostic.line + ": " + diagnostic.message);
+        }
+        return text;
+    }
+
+    private static List<String> replace(List<String> source, int index, String line) {
+        List<String> edited = new ArrayList<>(source);
+        edited.set(index, line);
+        return edited;
+    }
+
+    @Test
+    void reusesUnchangedLines() {
+        IncrementalCompiler compiler = new IncrementalCompiler(SESSION);
+        assertEquals(0, compiler.compile(PROGRAM).reused);
+        IncrementalCompiler.Report report = compiler.compile(PROGRAM);
+        assertEquals(PROGRAM.size(), report.reused);
+        assertEquals(0, report.recompiled);
+        assertSameAsFullBuild(compiler, PROGRAM);
+    }
+
+    @Test
+    void recompilesLinesWhoseDeclarationChanged() {
+        IncrementalCompiler compiler = new IncrementalCompiler(SESSION);
+        compiler.compile(PROGRAM);
+
+        // Dropping B invalidates the lines that look it up, and only those: the
+        // declaration itself, INPUT and the assignment
+        List<String> withoutB = replace(PROGRAM, 1, "INTEGER A, C");
+        IncrementalCompiler.Report report = compiler.compile(withoutB);
+        assertEquals(3, report.recompiled);
+        assertSameAsFullBuild(compiler, withoutB);
+        assertEquals(List.of("3: Semantic error: Undeclared identifier 'B'",
+                "4: Semantic error: Undeclared identifier 'B'"), describe(compiler.diagnostics()));
+
+        // Declaring it again brings back the code
+        report = compiler.compile(PROGRAM);
+        assertEquals(3, report.recompiled);
+        assertSameAsFullBuild(compiler, PROGRAM);
+        assertTrue(compiler.diagnostics().isEmpty());
+    }
+
+    @Test
+    void insertedLinesOnlyRenumberTheRest() {
+        IncrementalCompiler compiler = new IncrementalCompiler(SESSION);
+        compiler.compile(PROGRAM);
+        List<String> inserted = new ArrayList<>(PROGRAM);
+        inserted.add(3, "B = B - A");
+        IncrementalCompiler.Report report = compiler.compile(inserted);
+        assertEquals(1, report.recompiled);
+        assertSameAsFullBuild(compiler, inserted);
+    }
+
+    @Test
+    void matchesFullBuildsAcrossRandomEdits() {
+        String[] choices = {
+                "INTEGER A, B", "INTEGER C", "INTEGER B, D", "INPUT A, B", "INPUT C",
+                "A = B + C", "C = (A - D) * B", "D = A / B - C * A", "WRITE A", "WRITE D", "LET B = A",
+                "A = B +* C", "WRITE E;"
+        };
+        Random random = new Random(3);
+        IncrementalCompiler compiler = new IncrementalCompiler(SESSION);
+        List<String> source = new ArrayList<>(PROGRAM);
+        for (int version = 0; version < 200; version++) {
+            int edit = random.nextInt(3);
+            if (edit == 0 || source.isEmpty()) {
+                source.add(random.nextInt(source.size() + 1), choices[random.nextInt(choices.length)]);
+            } else if (edit == 1) {
+                source.remove(random.nextInt(source.size()));
+            } else {
+                source.set(random.nextInt(source.size()), choices[random.nextInt(choices.length)]);
+            }
+            compiler.compile(source);
+            assertSameAsFullBuild(compiler, source);
+        }
+    }
+
+    @Test
+    void rejectsWholeProgramPasses() {
+        for (String flag : new String[] {"--cse", "--dead-stores", "--slots"}) {
+            CompilerSession session = CompilerSession.fromArgs(new String[] {"--legacy-tmc", flag});
+            assertThrows(IllegalArgumentException.class, () -> new IncrementalCompiler(session), flag);
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package allAtOnce;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.*;
+
+import org.junit.jupiter.api.Test;
+
+// Dead stores and unused variables of whole programs
+class LivenessTest {
+    // Positions of the dead assignments of 'program', with no holders
+    private static List<Integer> dead(boolean programEnds, String... program) {
+        Ast.Program parsed = Parser.parseProgram(program);
+        List<Collection<String>> holders = new ArrayList<>();
+        for (int i = 0; i < parsed.statements.size(); i++) {
+            holders.add(Collections.emptyList());
+        }
+        return positions(Liveness.deadStores(parsed, holders, programEnds));
+    }
+
+    private static List<Integer> positions(BitSet bits) {
+        List<Integer> positions = new ArrayList<>();
+        bits.stream().forEach(positions::add);
+        return positions;
+    }
+
+    @Test
+    void dropsValuesThatNeverReachAWrite() {
+        // Overwritten before any read, never read, and only read by a dead assignment
+        assertEquals(List.of(0, 2, 3), dead(true, "X = A + B", "X = A - B", "Y = A * B", "Z = Y / A", "WRITE X"));
+    }
+
+    @Test
+    void inputRedefinesAVariable() {
+        assertEquals(List.of(0), dead(true, "X = A + B", "INPUT X", "WRITE X"));
+        assertEquals(List.of(), dead(true, "X = A + B", "INPUT A", "Y = X + A", "WRITE Y"));
+    }
+
+    @Test
+    void everythingIsLiveBeforeMoreCode() {
+        assertEquals(List.of(), dead(false, "X = A + B", "Y = X * A"));
+        assertEquals(List.of(3), dead(true, "X = A + B", "Y = X * A", "WRITE Y", "X = Y"));
+        assertEquals(List.of(0), dead(false, "X = A + B", "X = A * B"));
+    }
+
+    @Test
+    void assignmentStaysWhileItsHolderIsRead() {
+        // The first assignment also stores a value in holder H, which the second one reads
+        Ast.Program program = Parser.parseProgram(new String[] {"X = A * C", "Y = H - D", "WRITE Y"});
+        List<Collection<String>> holders = List.of(List.of("H"), List.of(), List.of());
+        assertEquals(List.of(), positions(Liveness.deadStores(program, holders, true)));
+
+        Ast.Program unread = Parser.parseProgram(new String[] {"X = A * C", "Y = A - D", "WRITE Y"});
+        assertEquals(List.of(0), positions(Liveness.deadStores(unread, holders, true)));
+    }
+
+    @Test
+    void commonSubexpressionHoldersKeepTheirAssignment() {
+        String[] program = {
+                "INTEGER A, B, C, D, U, X, Y, Z",
+                "INPUT A, B, C, D",
+                "X = (A + B) * C",
+                "Z = (A + B) * D - A",
+                "Y = (B + A) - D",
+                "WRITE Y",
+                "END"
+        };
+        int[] inputs = {3, 4, 9, 2};
+        CompilationUnit plain = CompilerSession.fromArgs(new String[] {"--run"}).newUnit();
+        plain.compile(program);
+        CompilationUnit unit = CompilerSession.fromArgs(new String[] {"--cse", "--dead-stores", "--run"}).newUnit();
+        unit.compile(program);
+        assertTrue(unit.diagnostics().isEmpty(), () -> unit.diagnostics().toString());
+
+        // X is never written, but line 3 also stores A + B for line 5
+        assertEquals(List.of(4), unit.removedStatements());
+        assertEquals(List.of("U"), unit.unusedVariables());
+        TmcMachine.Result result = unit.machine().run(inputs);
+        assertEquals(1, result.size());
+        assertEquals(plain.machine().run(inputs).value(0), result.value(0));
+        assertEquals(5, result.value(0));
+    }
+}
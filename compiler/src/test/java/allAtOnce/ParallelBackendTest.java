@@ -0,0 +1,98 @@
+package allAtOnce;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.ByteBuffer;
+import java.util.*;
+
+import org.junit.jupiter.api.Test;
+
+// The parallel back end against line-at-a-time generation on programs spanning
+// several back end windows
+class ParallelBackendTest {
+    // Random program of 'lines' lines with some errors and a WRITE every few lines
+    private static List<String> program(Random random, int lines) {
+        String[] names = {"A", "B", "C", "D", "E", "F"};
+        List<String> program = new ArrayList<>(List.of("BEGIN", "INTEGER A, B, C, D, E, F", "INPUT A, B, C, D, E, F"));
+        while (program.size() < lines - 1) {
+            int kind = random.nextInt(20);
+            if (kind == 0) {
+                program.add("A = B +* C");
+            } else if (kind == 1) {
+                program.add("G = A + B");
+            } else if (kind < 5) {
+                program.add("WRITE " + names[random.nextInt(names.length)]);
+            } else {
+                StringBuilder line = new StringBuilder(names[random.nextInt(names.length)]).append(" = ");
+                line.append(names[random.nextInt(names.length)]);
+                for (int n = random.nextInt(6); n >= 0; n--) {
+                    line.append(' ').append("+-*".charAt(random.nextInt(3))).append(' ')
+                            .append(names[random.nextInt(names.length)]);
+                }
+                program.add(line.toString());
+            }
+        }
+        program.add("END");
+        return program;
+    }
+
+    // Listing, diagnostics, binary TMC and, for executable sessions, the values written
+    private static List<Object> compile(String[] flags, List<String> program) {
+        CompilationUnit unit = CompilerSession.fromArgs(flags).newUnit();
+        TmcEmitter tmc = new TmcEmitter(1 << 12, false);
+        unit.binaryOutput(tmc);
+        unit.compile(program);
+        List<Object> outcome = new ArrayList<>();
+        outcome.add(unit.output());
+        for (CompilationUnit.Diagnostic diagnostic : unit.diagnostics()) {
+            outcome.add(diagnostic.line + ": " + diagnostic.message);
+        }
+        ByteBuffer code = tmc.code();
+        outcome.add(code);
+        if (unit.session().executable) {
+            TmcMachine.Result result = unit.machine().run(new int[] {3, 5, 7, 11, 13, 17});
+            for (int i = 0; i < result.size(); i++) {
+                outcome.add(result.value(i));
+            }
+        }
+        return outcome;
+    }
+
+    private static String[] with(String[] flags, String flag) {
+        String[] all = Arrays.copyOf(flags, flags.length + 1);
+        all[flags.length] = flag;
+        return all;
+    }
+
+    @Test
+    void matchesSequentialGeneration() {
+        List<String> program = program(new Random(1), 2 * CompilationUnit.BACKEND_WINDOW + 300);
+        String[][] options = {
+                {}, {"--legacy-tmc"}, {"--run"}, {"--cse", "--run"}, {"--dead-stores", "--run"},
+                {"--simplify", "--peephole", "--registers=2", "--run"}, {"--rebalance", "--cache=50"}
+        };
+        for (String[] flags : options) {
+            List<Object> parallel = compile(flags, program);
+            List<Object> sequential = compile(with(flags, "--sequential-backend"), program);
+            assertEquals(sequential, parallel, Arrays.toString(flags));
+        }
+    }
+
+    @Test
+    void writesEachWindowOnceItFills() {
+        List<String> program = program(new Random(2), CompilationUnit.BACKEND_WINDOW + 10);
+        StringBuilder out = new StringBuilder();
+        CompilationUnit unit = CompilerSession.builder().build().newUnit(out);
+        for (String line : program.subList(0, CompilationUnit.BACKEND_WINDOW)) {
+            unit.compileLine(line);
+        }
+        assertTrue(out.indexOf("Line " + CompilationUnit.BACKEND_WINDOW + ":") >= 0);
+        int written = out.length();
+        for (String line : program.subList(CompilationUnit.BACKEND_WINDOW, program.size())) {
+            unit.compileLine(line);
+        }
+        assertEquals(written, out.length());
+        unit.flush();
+        assertTrue(out.indexOf("Line " + program.size() + ":") >= 0);
+    }
+}
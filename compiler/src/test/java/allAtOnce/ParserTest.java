@@ -0,0 +1,35 @@
+package allAtOnce;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+class ParserTest {
+    @Test
+    void programKeepsStatementsInOrder() {
+        Ast.Program program = Parser.parseProgram(new String[] {
+                "BEGIN",
+                "INTEGER A, B",
+                "INPUT A",
+                "LET B = A * (A + A)",
+                "WRITE B",
+                "END"
+        });
+        assertEquals(4, program.statements.size());
+        assertInstanceOf(Ast.IntegerDecl.class, program.statements.get(0));
+        assertInstanceOf(Ast.Input.class, program.statements.get(1));
+        Ast.Let let = assertInstanceOf(Ast.Let.class, program.statements.get(2));
+        assertEquals(4, let.line());
+        assertEquals("B", let.target);
+        assertEquals(List.of("A", "A", "A", "+", "*"), Ast.postfix(let.value));
+        assertInstanceOf(Ast.Write.class, program.statements.get(3));
+    }
+
+    @Test
+    void programReportsTheFirstBadLine() {
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class,
+                () -> Parser.parseProgram(new String[] {"INTEGER A", "LET A = A * / A"}));
+        assertTrue(e.getMessage().startsWith("Line 2: "), e.getMessage());
+    }
+}
@@ -0,0 +1,124 @@
+package allAtOnce;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.*;
+
+import org.junit.jupiter.api.Test;
+
+// Shape and value of rebalanced expressions
+class RebalancerTest {
+    private static Ast.Expr parse(String expr) {
+        return ((Ast.Let) Parser.parseProgram(new String[] {"M = " + expr}).statements.get(0)).value;
+    }
+
+    private static int depth(Ast.Expr expr) {
+        if (expr instanceof Ast.Ident) {
+            return 0;
+        }
+        Ast.BinaryOp bin = (Ast.BinaryOp) expr;
+        return Math.max(depth(bin.left), depth(bin.right)) + 1;
+    }
+
+    // Value with identifier X holding values[X - 'A'], or null on division by zero
+    private static Integer evaluate(Ast.Expr expr, int[] values) {
+        if (expr instanceof Ast.Ident) {
+            return values[((Ast.Ident) expr).name.charAt(0) - 'A'];
+        }
+        Ast.BinaryOp bin = (Ast.BinaryOp) expr;
+        Integer left = evaluate(bin.left, values);
+        Integer right = evaluate(bin.right, values);
+        if (left == null || right == null) {
+            return null;
+        }
+        switch (bin.op) {
+            case '+':
+                return left + right;
+            case '-':
+                return left - right;
+            case '*':
+                return left * right;
+            default:
+                return right == 0 ? null : left / right;
+        }
+    }
+
+    // Operands of the chain of 'op' at the root of 'expr'
+    private static List<Ast.Expr> chain(Ast.Expr expr, char op, List<Ast.Expr> operands) {
+        if (expr instanceof Ast.BinaryOp && ((Ast.BinaryOp) expr).op == op) {
+            chain(((Ast.BinaryOp) expr).left, op, operands);
+            chain(((Ast.BinaryOp) expr).right, op, operands);
+        } else {
+            operands.add(expr);
+        }
+        return operands;
+    }
+
+    private static Ast.Expr random(Random random, int operators) {
+        if (operators == 0) {
+            return new Ast.Ident(String.valueOf((char) ('A' + random.nextInt(6))));
+        }
+        int left = random.nextInt(operators);
+        return new Ast.BinaryOp("++**-/".charAt(random.nextInt(6)), random(random, left),
+                random(random, operators - 1 - left));
+    }
+
+    @Test
+    void flattensLongChains() {
+        assertEquals(3, depth(Rebalancer.rebalance(parse("A + B + C + D + E + F + G + H"))));
+        assertEquals(4, depth(Rebalancer.rebalance(parse("A * B * C * D * E * F * G * H * A"))));
+    }
+
+    @Test
+    void reachesMinimalDepth() {
+        // Operands of heights h1..hn fit under a tree of depth d iff sum 2^hi <= 2^d
+        Random random = new Random(5);
+        for (int n = 0; n < 500; n++) {
+            Ast.Expr expr = random(random, 1 + random.nextInt(20));
+            Ast.Expr rebalanced = Rebalancer.rebalance(expr);
+            if (!(rebalanced instanceof Ast.BinaryOp)) {
+                continue;
+            }
+            char op = ((Ast.BinaryOp) rebalanced).op;
+            if (op != '+' && op != '*') {
+                continue;
+            }
+            long weight = 0;
+            for (Ast.Expr operand : chain(rebalanced, op, new ArrayList<>())) {
+                weight += 1L << depth(operand);
+            }
+            int minimal = 64 - Long.numberOfLeadingZeros(weight - 1);
+            assertEquals(minimal, depth(rebalanced), () -> Ast.postfix(expr).toString());
+        }
+    }
+
+    @Test
+    void leavesSubtractionAndDivisionAlone() {
+        for (String text : new String[] {"A - B - C - D - E", "A / B / C / D", "A - B / C - D / E"}) {
+            Ast.Expr expr = parse(text);
+            assertSame(expr, Rebalancer.rebalance(expr), text);
+        }
+        // Chains under - are rebalanced, the - keeps its operand order
+        Ast.BinaryOp rebalanced = (Ast.BinaryOp) Rebalancer.rebalance(parse("(A + B + C + D) - E"));
+        assertEquals('-', rebalanced.op);
+        assertEquals(2, depth(rebalanced.left));
+        assertEquals("E", ((Ast.Ident) rebalanced.right).name);
+    }
+
+    @Test
+    void keepsOperandsAndValues() {
+        Random random = new Random(9);
+        for (int n = 0; n < 500; n++) {
+            Ast.Expr expr = random(random, 1 + random.nextInt(20));
+            Ast.Expr rebalanced = Rebalancer.rebalance(expr);
+            List<String> before = new ArrayList<>(Ast.postfix(expr));
+            List<String> after = new ArrayList<>(Ast.postfix(rebalanced));
+            Collections.sort(before);
+            Collections.sort(after);
+            assertEquals(before, after);
+            assertTrue(depth(rebalanced) <= depth(expr));
+            int[] values = random.ints(6, -9, 10).toArray();
+            assertEquals(evaluate(expr, values), evaluate(rebalanced, values), () -> Ast.postfix(expr).toString());
+        }
+    }
+}
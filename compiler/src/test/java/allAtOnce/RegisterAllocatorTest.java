@@ -0,0 +1,148 @@
+package allAtOnce;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.*;
+
+import org.junit.jupiter.api.Test;
+
+// Register allocated three-operand code against the code it was allocated from
+class RegisterAllocatorTest {
+    private static final String TARGET = "M";
+
+    // Three-operand code of 'M = expr'
+    private static Ir.Code threeOperand(Ast.Expr expr, boolean recycle) {
+        Ir.Symbols symbols = new Ir.Symbols();
+        Ir.Code icr = Compiler3.generateICR(expr, symbols, recycle);
+        return Compiler3.optimizeAssembly(Compiler3.generateAssembly(icr, symbols.intern(TARGET)));
+    }
+
+    // Value of M after running 'code' with identifier X holding values[X - 'A'], or
+    // null on division by zero
+    private static Integer evaluate(Ir.Code code, int[] values) {
+        Map<String, Integer> memory = new HashMap<>();
+        for (int i = 0; i < values.length; i++) {
+            memory.put(String.valueOf((char) ('A' + i)), values[i]);
+        }
+        for (int i = 0; i < code.size(); i++) {
+            int left = memory.get(code.symbols.name(code.left(i)));
+            int right = memory.get(code.symbols.name(code.right(i)));
+            int value;
+            switch (code.op(i)) {
+                case ADD:
+                    value = left + right;
+                    break;
+                case SUB:
+                    value = left - right;
+                    break;
+                case MUL:
+                    value = left * right;
+                    break;
+                default:
+                    if (right == 0) {
+                        return null;
+                    }
+                    value = left / right;
+            }
+            memory.put(code.symbols.name(code.dest(i)), value);
+        }
+        return memory.get(TARGET);
+    }
+
+    private static Ast.Expr random(Random random, int operators) {
+        if (operators == 0) {
+            return new Ast.Ident(String.valueOf((char) ('A' + random.nextInt(6))));
+        }
+        int left = random.nextInt(operators);
+        return new Ast.BinaryOp("+-*/".charAt(random.nextInt(4)), random(random, left),
+                random(random, operators - 1 - left));
+    }
+
+    // (A + B) * (C + D) * ((E + F) * (A + C)): four values live at once
+    private static Ast.Expr wide() {
+        return bin('*', bin('*', bin('+', id("A"), id("B")), bin('+', id("C"), id("D"))),
+                bin('*', bin('+', id("E"), id("F")), bin('+', id("A"), id("C"))));
+    }
+
+    private static Ast.Expr bin(char op, Ast.Expr left, Ast.Expr right) {
+        return new Ast.BinaryOp(op, left, right);
+    }
+
+    private static Ast.Expr id(String name) {
+        return new Ast.Ident(name);
+    }
+
+    private static Set<Integer> temporaries(Ir.Code code) {
+        Set<Integer> temps = new HashSet<>();
+        for (int i = 0; i < code.size(); i++) {
+            for (int id : new int[] {code.dest(i), code.left(i), code.right(i)}) {
+                if (code.symbols.isTemp(id)) {
+                    temps.add(id);
+                }
+            }
+        }
+        return temps;
+    }
+
+    @Test
+    void preservesValues() {
+        Random random = new Random(11);
+        for (int n = 0; n < 500; n++) {
+            Ir.Code code = threeOperand(random(random, 1 + random.nextInt(12)), n % 2 == 0);
+            int[] values = random.ints(6, -20, 20).toArray();
+            Integer expected = evaluate(code, values);
+            for (int registers = 0; registers <= 4; registers++) {
+                RegisterAllocator.Result result = RegisterAllocator.allocate(code, registers);
+                assertEquals(code.size(), result.code.size());
+                assertTrue(result.registersUsed <= registers);
+                assertEquals(expected, evaluate(result.code, values), code.format() + " / " + registers);
+            }
+        }
+    }
+
+    @Test
+    void enoughRegistersLeaveNoTemporaryInMemory() {
+        RegisterAllocator.Result result = RegisterAllocator.allocate(threeOperand(wide(), false), 8);
+        assertEquals(0, result.spilled);
+        assertEquals(0, result.memoryOperands);
+        assertTrue(result.memoryOperandsBefore > 0);
+        assertTrue(temporaries(result.code).isEmpty(), result.code.format().toString());
+        // Never more registers than values live at once
+        assertEquals(3, result.registersUsed);
+    }
+
+    @Test
+    void spillsWhenRegistersRunOut() {
+        Ir.Code code = threeOperand(wide(), false);
+        RegisterAllocator.Result result = RegisterAllocator.allocate(code, 1);
+        assertEquals(1, result.registersUsed);
+        assertTrue(result.spilled > 0);
+        assertTrue(result.memoryOperands > 0 && result.memoryOperands < result.memoryOperandsBefore);
+    }
+
+    @Test
+    void resultReusesTheRegisterOfADyingOperand() {
+        // t1 = A + B, t2 = t1 * C, M = t2 - D: each temporary dies where the next is born
+        Ast.Expr chain = bin('-', bin('*', bin('+', id("A"), id("B")), id("C")), id("D"));
+        RegisterAllocator.Result result = RegisterAllocator.allocate(threeOperand(chain, false), 1);
+        assertEquals(0, result.spilled);
+        assertEquals(1, result.registersUsed);
+        assertEquals(0, result.memoryOperands);
+    }
+
+    @Test
+    void noRegistersLeavesTheCodeAlone() {
+        Ir.Code code = threeOperand(wide(), true);
+        RegisterAllocator.Result result = RegisterAllocator.allocate(code, 0);
+        assertEquals(code.format(), result.code.format());
+        assertEquals(result.temporaries, result.spilled);
+        assertEquals(result.memoryOperandsBefore, result.memoryOperands);
+    }
+
+    @Test
+    void needsThreeOperandCode() {
+        Ir.Symbols symbols = new Ir.Symbols();
+        Ir.Code icr = Compiler3.generateICR(wide(), symbols);
+        assertThrows(IllegalArgumentException.class, () -> RegisterAllocator.allocate(icr, 2));
+    }
+}
@@ -0,0 +1,51 @@
+package allAtOnce;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.ByteBuffer;
+
+import org.junit.jupiter.api.Test;
+
+// Operand bytes of the binary TMC with and without slot encoding
+class SlotEncodingTest {
+    // t1 = A * B, t2 = C * D, M = t1 + t2
+    private static final String[] PROGRAM = {"INTEGER A, B, C, D, M", "M = A * B + C * D"};
+
+    // Binary TMC of 'program' compiled with 'flags'
+    private static ByteBuffer tmc(String[] flags, String... program) {
+        CompilationUnit unit = CompilerSession.fromArgs(flags).newUnit();
+        TmcEmitter emitter = new TmcEmitter(64, false);
+        unit.binaryOutput(emitter);
+        unit.compile(program);
+        assertTrue(unit.diagnostics().isEmpty(), () -> unit.diagnostics().toString());
+        return emitter.code();
+    }
+
+    @Test
+    void slotsAreTheDefault() {
+        assertTrue(CompilerSession.fromArgs(new String[0]).slotEncoding);
+        assertFalse(CompilerSession.fromArgs(new String[] {"--legacy-tmc"}).slotEncoding);
+        assertFalse(CompilerSession.fromArgs(new String[] {"--incremental"}).slotEncoding);
+        assertThrows(IllegalStateException.class,
+                () -> CompilerSession.fromArgs(new String[] {"--legacy-tmc", "--run"}));
+    }
+
+    @Test
+    void distinctTemporariesEncodeToDistinctOperands() {
+        ByteBuffer code = tmc(new String[0], PROGRAM);
+        assertEquals(3 * TmcEmitter.INSTRUCTION_BYTES, code.remaining());
+        byte t1 = code.get(1);
+        byte t2 = code.get(5);
+        assertNotEquals(t1, t2);
+        // The sum reads both products
+        assertEquals(t1, code.get(10));
+        assertEquals(t2, code.get(11));
+    }
+
+    @Test
+    void legacyEncodingMergesTemporaries() {
+        ByteBuffer code = tmc(new String[] {"--legacy-tmc"}, PROGRAM);
+        assertEquals(InstructionEncoder.FALLBACK, code.get(1));
+        assertEquals(InstructionEncoder.FALLBACK, code.get(5));
+    }
+}
@@ -0,0 +1,84 @@
+package allAtOnce;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+// Lines read through small mapped windows against Files.readAllLines
+class SourceReaderTest {
+    @TempDir
+    Path dir;
+
+    private Path write(String text) throws IOException {
+        return Files.write(dir.resolve("source.txt"), text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static List<String> read(Path path, int window) throws IOException {
+        List<String> lines = new ArrayList<>();
+        try (SourceReader reader = SourceReader.open(path, window)) {
+            for (String line : reader) {
+                lines.add(line);
+            }
+        }
+        return lines;
+    }
+
+    private void assertReadsLikeFiles(String text) throws IOException {
+        Path path = write(text);
+        List<String> expected = Files.readAllLines(path, StandardCharsets.UTF_8);
+        for (int window : new int[] {1, 2, 3, 5, 8, SourceReader.DEFAULT_WINDOW}) {
+            assertEquals(expected, read(path, window), () -> "window " + window + ": " + text);
+        }
+    }
+
+    @Test
+    void splitsOnEveryLineBreak() throws IOException {
+        assertReadsLikeFiles("");
+        assertReadsLikeFiles("BEGIN");
+        assertReadsLikeFiles("BEGIN\nEND\n");
+        assertReadsLikeFiles("BEGIN\r\nINTEGER A\r\nEND\r\n");
+        assertReadsLikeFiles("BEGIN\rINTEGER A\rEND");
+        assertReadsLikeFiles("A\r\rB\n\nC\r\n\r\nD\n\r");
+    }
+
+    @Test
+    void readsLinesLongerThanTheWindow() throws IOException {
+        StringBuilder line = new StringBuilder("A = B");
+        for (int i = 0; i < 500; i++) {
+            line.append(" + B");
+        }
+        assertReadsLikeFiles("BEGIN\r\n" + line + "\r\n" + line + "\rWRITE A\nEND");
+    }
+
+    @Test
+    void decodesCharactersAcrossWindows() throws IOException {
+        assertReadsLikeFiles("café = été\r\nnaïve\r€€€\n");
+    }
+
+    @Test
+    void matchesFilesOnRandomText() throws IOException {
+        String alphabet = "AB =+\r\n\r\né";
+        Random random = new Random(7);
+        for (int n = 0; n < 200; n++) {
+            char[] text = new char[random.nextInt(40)];
+            for (int i = 0; i < text.length; i++) {
+                text[i] = alphabet.charAt(random.nextInt(alphabet.length()));
+            }
+            assertReadsLikeFiles(new String(text));
+        }
+    }
+
+    @Test
+    void iteratesOnce() throws IOException {
+        try (SourceReader reader = SourceReader.open(write("A\nB\n"))) {
+            reader.iterator();
+            assertThrows(IllegalStateException.class, reader::iterator);
+        }
+    }
+}
@@ -0,0 +1,371 @@
+package allAtOnce;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.*;
+import org.openjdk.jmh.runner.options.*;
+
+// JMH benchmarks for every Compiler3 stage and the end-to-end pipeline.
+//
+// Build with mvn package, then run java -jar jmh/target/benchmarks.jar. By default
+// (see main) every stage runs with the gc profiler, for allocation per operation, and
+// the results are written to jmh-result.json. Any JMH option overrides that: a
+// benchmark pattern, -prof, -rf or -rff; -p exprLength=64 (or identifiers=,
+// errorRate=, lines=) narrows the parameters.
+//
+// One operation is one pass of a stage over a generated program; the trial setup
+// pre-computes each stage's inputs so every stage is measured on its own. execute runs
+// the program's TMC on TmcMachine, executeJit the same program compiled to JVM bytecode
+// (see JvmBackend); both are measured in runs per second and also count the TMC
+// instructions executed, so JMH reports instructions per second next to them.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class StageBenchmark {
+    private static final CompilerSession DFA_SESSION = CompilerSession.builder().dfaScanner(true).build();
+    private static final CompilerSession EXECUTABLE_SESSION = CompilerSession.builder().dfaScanner(true)
+            .parallelBackend(false).tmcListing(false).slotEncoding(true).executable(true).build();
+
+    @Param({"8", "64", "512"})
+    int exprLength;
+
+    @Param({"4", "26"})
+    int identifiers;
+
+    @Param({"0", "0.1"})
+    double errorRate;
+
+    @Param("256")
+    int lines;
+
+    Workload w;
+
+    // TMC instructions executed by execute and executeJit
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Instructions {
+        public long instructions;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            instructions = 0;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        w = generate(exprLength, identifiers, errorRate, lines, 42);
+    }
+
+    @Benchmark
+    public int tokenize() {
+        int h = 0;
+        for (String line : w.lines) {
+            h += Compiler3.tokenize(line).size();
+        }
+        return h;
+    }
+
+    @Benchmark
+    public int tokenizeDfa() {
+        int h = 0;
+        for (String line : w.lines) {
+            h += Compiler3.tokenize(line, w.scratch).size();
+        }
+        return h;
+    }
+
+    @Benchmark
+    public int checkSyntaxErrors() {
+        int h = 0;
+        for (TokenStream tokens : w.tokens) {
+            h += Objects.hashCode(Compiler3.checkSyntaxErrors(tokens));
+        }
+        return h;
+    }
+
+    @Benchmark
+    public int checkSemanticErrors() {
+        int h = 0;
+        for (TokenStream tokens : w.validTokens) {
+            h += Objects.hashCode(Compiler3.checkSemanticErrors(tokens));
+        }
+        return h;
+    }
+
+    @Benchmark
+    public int toPostfix() {
+        int h = 0;
+        for (TokenStream tokens : w.validTokens) {
+            h += Compiler3.toPostfix(tokens, exprStart(tokens)).size();
+        }
+        return h;
+    }
+
+    @Benchmark
+    public int parse() {
+        int h = 0;
+        for (TokenStream tokens : w.validTokens) {
+            h += System.identityHashCode(Parser.parseStatement(tokens, 0));
+        }
+        return h;
+    }
+
+    @Benchmark
+    public int generateICR() {
+        int h = 0;
+        for (Ast.Expr expr : w.exprs) {
+            h += Compiler3.generateICR(expr, new Ir.Symbols()).size();
+        }
+        return h;
+    }
+
+    @Benchmark
+    public int generateAssembly() {
+        int h = 0;
+        for (int i = 0; i < w.icr.size(); i++) {
+            h += Compiler3.generateAssembly(w.icr.get(i), w.targets.get(i)).size();
+        }
+        return h;
+    }
+
+    @Benchmark
+    public int optimizeAssembly() {
+        int h = 0;
+        for (Ir.Code assembly : w.assembly) {
+            h += Compiler3.optimizeAssembly(assembly).size();
+        }
+        return h;
+    }
+
+    @Benchmark
+    public int generateTMC() {
+        int h = 0;
+        for (Ir.Code optimized : w.optimized) {
+            h += Compiler3.generateTMC(optimized).size();
+        }
+        return h;
+    }
+
+    @Benchmark
+    public int generateBinaryTMC() {
+        int h = 0;
+        for (Ir.Code optimized : w.optimized) {
+            h += Compiler3.generateBinaryTMC(optimized).remaining();
+        }
+        return h;
+    }
+
+    @Benchmark
+    public int pipeline() {
+        int h = 0;
+        TokenStream tokens = w.scratch;
+        for (String line : w.lines) {
+            Compiler3.tokenize(line, tokens);
+            if (Compiler3.checkLexicalErrors(tokens) != null || Compiler3.checkSyntaxErrors(tokens) != null) {
+                h++;
+                continue;
+            }
+            Compiler3.declareIdentifiers(tokens);
+            if (Compiler3.checkSemanticErrors(tokens) != null || !isAssignment(tokens)) {
+                h++;
+                continue;
+            }
+            Ast.Let let = (Ast.Let) Parser.parseStatement(tokens, 0);
+            Ir.Symbols symbols = new Ir.Symbols();
+            Ir.Code icr = Compiler3.generateICR(let.value, symbols);
+            Ir.Code optimized = Compiler3.optimizeAssembly(Compiler3.generateAssembly(icr, symbols.intern(let.target)));
+            h += Compiler3.generateTMC(optimized).size();
+        }
+        return h;
+    }
+
+    @Benchmark
+    public int compilationUnit() {
+        CompilationUnit unit = DFA_SESSION.newUnit();
+        unit.compile(w.lines);
+        return unit.output().length();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public int execute(Instructions counters) {
+        counters.instructions += w.machineInstructions;
+        return w.machine.run(w.inputs).size();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public int executeJit(Instructions counters) {
+        counters.instructions += w.machineInstructions;
+        return w.compiled.run(w.inputs).size();
+    }
+
+    // The JMH command line with this class's defaults for what it leaves out
+    public static void main(String[] args) throws CommandLineOptionException, IOException, RunnerException {
+        CommandLineOptions command = new CommandLineOptions(args);
+        if (command.shouldHelp()) {
+            command.showHelp();
+            return;
+        }
+        ChainedOptionsBuilder options = new OptionsBuilder().parent(command);
+        if (command.getIncludes().isEmpty()) {
+            options.include(StageBenchmark.class.getSimpleName());
+        }
+        if (command.getProfilers().isEmpty()) {
+            options.addProfiler(GCProfiler.class);
+        }
+        if (!command.getResultFormat().hasValue()) {
+            options.resultFormat(ResultFormatType.JSON);
+        }
+        if (!command.getResult().hasValue()) {
+            options.result("jmh-result.json");
+        }
+        Runner runner = new Runner(options.build());
+        if (command.shouldList()) {
+            runner.list();
+        } else {
+            runner.run();
+        }
+    }
+
+    // A generated program plus the inputs each stage consumes
+    static final class Workload {
+        final List<String> lines = new ArrayList<>();
+        final List<TokenStream> tokens = new ArrayList<>();
+        final List<TokenStream> validTokens = new ArrayList<>();
+        final List<Ast.Expr> exprs = new ArrayList<>();
+        final List<Integer> targets = new ArrayList<>();
+        final List<Ir.Code> icr = new ArrayList<>();
+        final List<Ir.Code> assembly = new ArrayList<>();
+        final List<Ir.Code> optimized = new ArrayList<>();
+        final TokenStream scratch = new TokenStream();
+        // Runnable version of the program and the instructions one run executes
+        TmcMachine machine;
+        JvmBackend.Program compiled;
+        int[] inputs;
+        long machineInstructions;
+    }
+
+    static boolean isAssignment(TokenStream tokens) {
+        return tokens.is(0, Compiler3.TokenType.KEYWORD, "LET") ||
+                (tokens.type(0) == Compiler3.TokenType.IDENTIFIER && tokens.size() > 1 && tokens.is(1, Compiler3.TokenType.SYMBOL, "="));
+    }
+
+    static int exprStart(TokenStream tokens) {
+        return tokens.valueEquals(0, "LET") ? 3 : 2;
+    }
+
+    // A..Z then a..z; the back end only encodes single-letter names
+    static String identifier(int i) {
+        return String.valueOf((char) (i < 26 ? 'A' + i : 'a' + i - 26));
+    }
+
+    // Builds a BEGIN..END program of assignment lines; errorRate of them carry an error
+    static Workload generate(int exprLength, int identifiers, double errorRate, int lineCount, long seed) {
+        Random random = new Random(seed);
+        identifiers = Math.max(1, Math.min(identifiers, 52));
+        String[] ids = new String[identifiers];
+        for (int i = 0; i < identifiers; i++) {
+            ids[i] = identifier(i);
+        }
+        String ops = "+-*/";
+        Workload w = new Workload();
+        w.lines.add("BEGIN");
+        w.lines.add("INTEGER " + String.join(", ", ids));
+        for (int n = 0; n < lineCount; n++) {
+            StringBuilder line = new StringBuilder();
+            line.append(random.nextBoolean() ? "LET " : "").append(ids[random.nextInt(identifiers)]).append(" = ");
+            for (int k = 0; k < exprLength; k++) {
+                if (k > 0) {
+                    line.append(' ').append(ops.charAt(random.nextInt(4))).append(' ');
+                }
+                line.append(ids[random.nextInt(identifiers)]);
+            }
+            if (random.nextDouble() < errorRate) {
+                switch (random.nextInt(3)) {
+                    case 0:
+                        line.append(" + 42");
+                        break;
+                    case 1:
+                        line.append(" * / ").append(ids[0]);
+                        break;
+                    default:
+                        line.append(" - undeclared");
+                        break;
+                }
+            }
+            w.lines.add(line.toString());
+        }
+        w.lines.add("END");
+
+        // Pre-compute every stage's input so each stage is measured on its own
+        Compiler3.declareIdentifiers(Compiler3.tokenize(w.lines.get(1), new TokenStream()));
+        for (String line : w.lines) {
+            TokenStream tokens = Compiler3.tokenize(line, new TokenStream());
+            w.tokens.add(tokens);
+            if (Compiler3.checkSyntaxErrors(tokens) != null || !isAssignment(tokens)) {
+                continue;
+            }
+            w.validTokens.add(tokens);
+            if (Compiler3.checkSemanticErrors(tokens) != null) {
+                continue;
+            }
+            Ast.Let let = (Ast.Let) Parser.parseStatement(tokens, 0);
+            Ir.Symbols symbols = new Ir.Symbols();
+            Ir.Code icr = Compiler3.generateICR(let.value, symbols);
+            int target = symbols.intern(let.target);
+            Ir.Code assembly = Compiler3.generateAssembly(icr, target);
+            w.exprs.add(let.value);
+            w.targets.add(target);
+            w.icr.add(icr);
+            w.assembly.add(assembly);
+            w.optimized.add(Compiler3.optimizeAssembly(assembly));
+        }
+        executable(w, ids, exprLength, lineCount, seed);
+        return w;
+    }
+
+    // Program for the execute stage: the same shape of assignments between an INPUT and
+    // a WRITE of every identifier. Its operators are + - * only, since the program would
+    // soon divide by zero and stop.
+    static void executable(Workload w, String[] ids, int exprLength, int lineCount, long seed) {
+        Random random = new Random(seed);
+        List<String> lines = new ArrayList<>();
+        lines.add("BEGIN");
+        lines.add("INTEGER " + String.join(", ", ids));
+        lines.add("INPUT " + String.join(", ", ids));
+        for (int n = 0; n < lineCount; n++) {
+            StringBuilder line = new StringBuilder("LET ").append(ids[random.nextInt(ids.length)]).append(" =");
+            for (int k = 0; k < exprLength; k++) {
+                if (k > 0) {
+                    line.append(' ').append("+-*".charAt(random.nextInt(3)));
+                }
+                line.append(' ').append(ids[random.nextInt(ids.length)]);
+            }
+            lines.add(line.toString());
+        }
+        for (String id : ids) {
+            lines.add("WRITE " + id);
+        }
+        lines.add("END");
+        CompilationUnit unit = EXECUTABLE_SESSION.newUnit();
+        unit.compile(lines);
+        w.machine = unit.machine();
+        w.compiled = JvmBackend.compile(w.machine);
+        w.inputs = new int[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            w.inputs[i] = 2 * i + 1;
+        }
+        w.machineInstructions = w.machine.run(w.inputs).instructions;
+    }
+}